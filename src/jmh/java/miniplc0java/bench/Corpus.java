@@ -0,0 +1,81 @@
+package miniplc0java.bench;
+
+import java.util.Random;
+
+/**
+ * 基准测试用的源码，按固定的种子生成，每种大约 256 KiB
+ */
+public enum Corpus {
+    /** 大量不同的标识符和关键字 */
+    IDENTIFIERS {
+        @Override
+        void append(StringBuilder out, Random random, int i) {
+            out.append("fn function_").append(i).append("(alpha_").append(i).append(": int, beta: double) -> int {\n");
+            for (int j = 0; j < 4; j++) {
+                out.append("    let local_").append(random.nextInt(1000)).append(": int = alpha_").append(i)
+                        .append(" + counter_").append(random.nextInt(100)).append(";\n");
+            }
+            out.append("    return alpha_").append(i).append(";\n}\n");
+        }
+    },
+    /** 整数、浮点数、字符串和字符字面量 */
+    LITERALS {
+        @Override
+        void append(StringBuilder out, Random random, int i) {
+            out.append("    putint(").append(random.nextInt(Integer.MAX_VALUE)).append(" + ")
+                    .append(random.nextLong() >>> 1).append(");\n");
+            out.append("    let d: double = ").append(random.nextInt(100000)).append('.')
+                    .append(random.nextInt(100000)).append("e-").append(random.nextInt(30)).append(";\n");
+            out.append("    putstr(\"line ").append(i).append(" with \\t escapes \\n and \\\"quotes\\\"\");\n");
+            out.append("    putchar('").append((char) ('a' + random.nextInt(26))).append("'); putchar('\\n');\n");
+        }
+    },
+    /** 以注释为主，夹着少量代码 */
+    COMMENTS {
+        @Override
+        void append(StringBuilder out, Random random, int i) {
+            for (int j = 0; j < 8; j++) {
+                out.append("// comment ").append(i).append('.').append(j)
+                        .append(": the quick brown fox jumps over the lazy dog\n");
+            }
+            out.append("    \t\n    let x").append(i).append(": int = ").append(i).append(";\n");
+        }
+    },
+    /** 深层嵌套的表达式和语句块 */
+    NESTED {
+        @Override
+        void append(StringBuilder out, Random random, int i) {
+            int depth = 8 + random.nextInt(24);
+            out.append("fn nested").append(i).append("() -> int {\n");
+            for (int j = 0; j < depth; j++) {
+                out.append("while a < b { if a >= ").append(j).append(" { ");
+            }
+            out.append("a = ");
+            for (int j = 0; j < depth; j++) {
+                out.append("(a * ");
+            }
+            out.append('1');
+            for (int j = 0; j < depth; j++) {
+                out.append(" - -b)");
+            }
+            out.append(";");
+            for (int j = 0; j < depth; j++) {
+                out.append(" } }");
+            }
+            out.append("\nreturn a;\n}\n");
+        }
+    };
+
+    static final int SIZE = 256 * 1024;
+
+    abstract void append(StringBuilder out, Random random, int i);
+
+    public String generate() {
+        var out = new StringBuilder(SIZE + 1024);
+        var random = new Random(42);
+        for (int i = 0; out.length() < SIZE; i++) {
+            append(out, random, i);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,85 @@
+package miniplc0java.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import miniplc0java.tokenizer.SourceBuffer;
+import miniplc0java.tokenizer.StringIter;
+
+/**
+ * StringIter 逐字符读取的开销，以直接按偏移读取 SourceBuffer 为参照
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringIterBenchmark {
+    @Param({"IDENTIFIERS", "LITERALS", "COMMENTS", "NESTED"})
+    public Corpus corpus;
+
+    private SourceBuffer source;
+
+    @Setup
+    public void setup() {
+        source = SourceBuffer.of(corpus.generate());
+    }
+
+    @Benchmark
+    public long nextChar() {
+        var it = new StringIter(source);
+        long sum = 0;
+        while (!it.isEOF()) {
+            sum += it.nextChar();
+        }
+        return sum;
+    }
+
+    /**
+     * 词法分析器的常见用法：先 peekChar 判断，再 nextChar 前进
+     */
+    @Benchmark
+    public long peekThenNext() {
+        var it = new StringIter(source);
+        long sum = 0;
+        while (!it.isEOF()) {
+            if (it.peekChar() != ' ') {
+                sum += it.currentPos();
+            }
+            it.nextChar();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long skipSpaces() {
+        var it = new StringIter(source);
+        long sum = 0;
+        while (!it.isEOF()) {
+            it.skipSpaces();
+            sum += it.nextChar();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long sourceBuffer() {
+        long sum = 0;
+        for (int i = 0; source.has(i); i++) {
+            sum += source.charAt(i);
+        }
+        return sum;
+    }
+}
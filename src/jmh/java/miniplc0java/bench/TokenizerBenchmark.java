@@ -0,0 +1,92 @@
+package miniplc0java.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import miniplc0java.error.TokenizeError;
+import miniplc0java.tokenizer.SourceBuffer;
+import miniplc0java.tokenizer.StringIter;
+import miniplc0java.tokenizer.Token;
+import miniplc0java.tokenizer.TokenStream;
+import miniplc0java.tokenizer.TokenType;
+import miniplc0java.tokenizer.Tokenizer;
+
+/**
+ * 对整份源码做一次词法分析
+ * tokens 计数器给出每秒的 Token 数；配合 -prof gc，每个 Token 的分配量是 gc.alloc.rate.norm 除以每次操作的 Token 数
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizerBenchmark {
+    @Param({"IDENTIFIERS", "LITERALS", "COMMENTS", "NESTED"})
+    public Corpus corpus;
+
+    @Param({"LEGACY", "TABLE"})
+    public Tokenizer.Engine engine;
+
+    private SourceBuffer source;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long tokens;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            tokens = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        source = SourceBuffer.of(corpus.generate());
+    }
+
+    /**
+     * 逐个调用 nextToken()，每个 Token 都是一个对象
+     */
+    @Benchmark
+    public void nextToken(Counters counters, Blackhole blackhole) throws TokenizeError {
+        var tokenizer = Tokenizer.create(new StringIter(source), engine);
+        Token token;
+        do {
+            token = tokenizer.nextToken();
+            blackhole.consume(token);
+            counters.tokens++;
+        } while (token.getTokenType() != TokenType.EOF);
+    }
+
+    /**
+     * 通过 TokenStream 按下标读取，分析器实际使用的方式
+     */
+    @Benchmark
+    public void tokenStream(Counters counters, Blackhole blackhole) throws TokenizeError {
+        var tokens = new TokenStream(Tokenizer.create(new StringIter(source), engine));
+        int i = 0;
+        TokenType type;
+        do {
+            type = tokens.type(i);
+            blackhole.consume(tokens.end(i));
+            i++;
+        } while (type != TokenType.EOF);
+        counters.tokens += i;
+    }
+}
@@ -4,17 +4,24 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Scanner;
 
 import miniplc0java.analyser.Analyser;
+import miniplc0java.analyser.CompilationContext;
 import miniplc0java.error.CompileError;
 import miniplc0java.instruction.Instruction;
 import miniplc0java.instruction.Intermediate;
+import miniplc0java.instruction.Peephole;
 import miniplc0java.instruction.WriteFile;
+import miniplc0java.tokenizer.SourceBuffer;
 import miniplc0java.tokenizer.StringIter;
 import miniplc0java.tokenizer.Token;
 import miniplc0java.tokenizer.TokenType;
@@ -30,30 +37,70 @@ import net.sourceforge.argparse4j.inf.Namespace;
 
 public class App {
     public static void main(String[] args) throws CompileError {
+        if (args.length > 0 && args[0].equals("--server")) {
+            try {
+                CompileServer.main(Arrays.copyOfRange(args, 1, args.length));
+            } catch (IOException e) {
+                System.err.println("Cannot start compile server.");
+                e.printStackTrace();
+                System.exit(2);
+            }
+            return;
+        }
+        int status = run(args, Path.of(""), System.err);
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /**
+     * 按命令行参数编译一次，CompileServer 也用它
+     * @param args 命令行参数
+     * @param cwd 相对路径相对于这个目录
+     * @param err 错误输出
+     * @return 退出码
+     * @throws CompileError 编译错误，由调用者报告
+     */
+    static int run(String[] args, Path cwd, PrintStream err) throws CompileError {
         var argparse = buildArgparse();
         Namespace result;
         try {
             result = argparse.parseArgs(args);
         } catch (ArgumentParserException e1) {
-            argparse.handleError(e1);
-            return;
+            var writer = new PrintWriter(err);
+            argparse.handleError(e1, writer);
+            writer.flush();
+            return 0;
         }
 
         var inputFileName = result.getString("input");
         var outputFileName = result.getString("asm");
 
-        InputStream input;
-        if (inputFileName.equals("-")) {
-            input = System.in;
-        } else {
-            try {
-                input = new FileInputStream(inputFileName);
-            } catch (FileNotFoundException e) {
-                System.err.println("Cannot find input file.");
-                e.printStackTrace();
-                System.exit(2);
-                return;
+        Peephole peephole;
+        try {
+            peephole = Peephole.parse(result.getString("peephole"));
+        } catch (IllegalArgumentException e) {
+            err.println("Unknown peephole rule in: " + result.getString("peephole"));
+            return 2;
+        }
+
+        SourceBuffer input;
+        // 流式读取时打开的输入文件，编译完关掉，常驻的服务不能漏掉文件句柄
+        InputStream stream = null;
+        try {
+            if (result.getBoolean("stream")) {
+                stream = inputFileName.equals("-") ? System.in
+                        : new FileInputStream(cwd.resolve(inputFileName).toFile());
+                input = SourceBuffer.stream(stream, result.getInt("window"));
+            } else if (inputFileName.equals("-")) {
+                input = SourceBuffer.read(System.in);
+            } else {
+                input = SourceBuffer.map(cwd.resolve(inputFileName));
             }
+        } catch (IOException e) {
+            err.println("Cannot find input file.");
+            e.printStackTrace(err);
+            return 2;
         }
 
         PrintStream asm;
@@ -61,24 +108,35 @@ public class App {
             asm = System.out;
         } else {
             try {
-                asm = new PrintStream(new FileOutputStream(outputFileName));
+                asm = new PrintStream(new FileOutputStream(cwd.resolve(outputFileName).toFile()));
             } catch (FileNotFoundException e) {
-                System.err.println("Cannot open output file.");
-                e.printStackTrace();
-                System.exit(2);
-                return;
+                err.println("Cannot open output file.");
+                e.printStackTrace(err);
+                close(stream);
+                return 2;
             }
         }
 
-        Scanner scanner;
-        scanner = new Scanner(input);
-        var iter = new StringIter(scanner);
-        var tokenizer = tokenize(iter);
-
-        var analyzer = new Analyser(tokenizer);
-        Intermediate m=analyzer.analyse();
-        //asm.println(MidCode.getMidCode().toString());
-        WriteFile.writeO0File(m, outputFileName);
+        try {
+            var context = new CompilationContext(Tokenizer.Engine.valueOf(result.getString("lexer").toUpperCase()),
+                    result.getInt("jobs"), result.getBoolean("parallel"), (long) result.getInt("stack") << 20, peephole);
+            Intermediate m=context.compile(input);
+            if (result.getBoolean("peephole_stats")) {
+                err.print(peephole.report());
+            }
+            //asm.println(MidCode.getMidCode().toString());
+            WriteFile.writeO0File(m, cwd.resolve(outputFileName).toString());
+        } catch (UncheckedIOException e) {
+            // 流式读取时才会在编译中途读输入
+            err.println("Cannot read input file: " + e.getCause().getMessage());
+            return 2;
+        } finally {
+            if (asm != System.out) {
+                asm.close();
+            }
+            close(stream);
+        }
+        return 0;
 
 //        if (result.getBoolean("tokenize")) {
 //            // tokenize
@@ -122,6 +180,17 @@ public class App {
 //        }
     }
 
+    private static void close(InputStream stream) {
+        if (stream == null || stream == System.in) {
+            return;
+        }
+        try {
+            stream.close();
+        } catch (IOException e) {
+            // 只读的文件，关闭失败不影响结果
+        }
+    }
+
     private static ArgumentParser buildArgparse() {
         var builder = ArgumentParsers.newFor("miniplc0-java");
         var parser = builder.build();
@@ -129,12 +198,25 @@ public class App {
 //        parser.addArgument("-l", "--analyse").help("Analyze the input").action(Arguments.storeTrue());
         parser.addArgument("-o", "--output").help("Set the output file").required(true).dest("asm")
                 .action(Arguments.store());
+        parser.addArgument("--stream").help("Read the input in chunks through a sliding window")
+                .action(Arguments.storeTrue());
+        parser.addArgument("--window").help("Sliding window size in bytes for --stream").type(Integer.class)
+                .setDefault(SourceBuffer.DEFAULT_WINDOW);
+        parser.addArgument("--lexer").help("Tokenizer engine: legacy or table").choices("legacy", "table")
+                .setDefault("legacy");
+        parser.addArgument("--jobs").help("Lex large inputs with this many threads before analysing")
+                .type(Integer.class).setDefault(1);
+        parser.addArgument("--parallel").help("Analyse function bodies in parallel after reading all signatures")
+                .action(Arguments.storeTrue());
+        parser.addArgument("--stack").help("Initial analyser stack size in MiB. A declaration that nests too deeply is "
+                + "reanalysed with twice the stack, up to " + (CompilationContext.MAX_STACK >> 20)
+                + " MiB; deeper nesting fails with NestingTooDeep")
+                .type(Integer.class).setDefault((int) (CompilationContext.DEFAULT_STACK >> 20));
+        parser.addArgument("--peephole").help("Peephole rules to apply: all, none, or a comma-separated list of "
+                + Arrays.toString(Peephole.Rule.values())).setDefault("all");
+        parser.addArgument("--peephole-stats").help("Print the instructions removed by each peephole rule")
+                .action(Arguments.storeTrue());
         parser.addArgument("file").required(true).dest("input").action(Arguments.store()).help("Input file");
         return parser;
     }
-
-    private static Tokenizer tokenize(StringIter iter) {
-        var tokenizer = new Tokenizer(iter);
-        return tokenizer;
-    }
 }
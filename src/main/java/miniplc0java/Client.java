@@ -0,0 +1,101 @@
+package miniplc0java;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import miniplc0java.error.CompileError;
+
+/**
+ * CompileServer 的客户端，参数、输出文件、错误输出和退出码都和直接运行 App 相同
+ * 只用到 JDK 里的几个类，启动比 App 快得多
+ *
+ * 套接字的路径见 CompileServer.defaultSocket；
+ * 连不上服务，或者要读写标准输入输出（参数里有 -）时，在本进程里直接编译
+ */
+public final class Client {
+    public static void main(String[] args) throws CompileError, IOException {
+        SocketChannel channel = remote(args) ? connect(CompileServer.defaultSocket()) : null;
+        if (channel == null) {
+            App.main(args);
+            return;
+        }
+        int status;
+        try (channel) {
+            status = request(args, Channels.newInputStream(channel), Channels.newOutputStream(channel), System.err);
+        }
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    private static boolean remote(String[] args) {
+        for (String arg : args) {
+            if (arg.equals("-") || arg.indexOf('\t') >= 0 || arg.indexOf('\n') >= 0 || arg.indexOf('\r') >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 连接服务
+     * @return 服务没有启动时返回 null
+     */
+    static SocketChannel connect(Path socket) {
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            channel.connect(UnixDomainSocketAddress.of(socket));
+            return channel;
+        } catch (IOException e) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // 没有连上，关闭失败也无所谓
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 发一个请求，把回复里的错误输出原样写到 err
+     * @return 退出码
+     */
+    static int request(String[] args, InputStream in, OutputStream out, PrintStream err) throws IOException {
+        var line = new StringBuilder(Path.of("").toAbsolutePath().toString());
+        for (String arg : args) {
+            line.append('\t').append(arg);
+        }
+        line.append('\n');
+        out.write(line.toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+
+        in = new BufferedInputStream(in);
+        var header = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                throw new IOException("compile server closed the connection");
+            }
+            header.write(c);
+        }
+        String[] fields = header.toString(StandardCharsets.UTF_8).split(" ");
+        int status = Integer.parseInt(fields[0]);
+        byte[] body = in.readNBytes(Integer.parseInt(fields[1]));
+        err.write(body);
+        err.flush();
+        return status;
+    }
+}
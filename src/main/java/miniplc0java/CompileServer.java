@@ -0,0 +1,184 @@
+package miniplc0java;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 常驻的编译服务，省掉每次编译时 JVM 启动、类加载和 JIT 预热的时间
+ *
+ * 请求占一行，用制表符分隔：第一项是客户端的工作目录（绝对路径），后面是和命令行完全相同的参数；
+ * 回复先是一行 "退出码 字节数"，然后是这么多字节（UTF-8）的错误输出，
+ * 错误输出和退出码都和直接运行 App 时一样，输出文件由服务直接写出
+ * 每个请求都在新的 CompilationContext 上编译，互不影响；
+ * 标准输入输出是协议本身，参数里的 - 一律拒绝
+ *
+ * App --server                  从标准输入读请求，回复写到标准输出
+ * App --server --socket [PATH]  监听 Unix 域套接字，默认是 defaultSocket()，
+ *                               每个连接可以连续发多个请求，不同连接并发处理
+ *
+ * 服务用自己的权限读写请求里的路径，所以只有同一个用户能连上：
+ * 套接字所在的目录必须属于这个用户、权限是 0700，套接字本身是 0600
+ */
+public final class CompileServer {
+    private static final String OWNER_ONLY_DIR = "rwx------";
+    private static final String OWNER_ONLY_FILE = "rw-------";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            serve(System.in, System.out);
+        } else if (args[0].equals("--socket") && args.length <= 2) {
+            Path socket = args.length == 2 ? Path.of(args[1]) : defaultSocket();
+            try (ServerSocketChannel server = bind(socket)) {
+                listen(server);
+            } finally {
+                Files.deleteIfExists(socket);
+            }
+        } else {
+            System.err.println("usage: miniplc0-java --server [--socket [PATH]]");
+            System.exit(2);
+        }
+    }
+
+    /**
+     * 环境变量 MINIPLC0_SOCKET 指定的路径，没有时是 ~/.miniplc0/server.sock，客户端也用它
+     */
+    public static Path defaultSocket() {
+        String path = System.getenv("MINIPLC0_SOCKET");
+        if (path != null && !path.isEmpty()) {
+            return Path.of(path);
+        }
+        return Path.of(System.getProperty("user.home"), ".miniplc0", "server.sock");
+    }
+
+    /**
+     * 在 socket 上监听：目录不存在时以 0700 创建，已经存在时必须属于当前用户、不允许其他人访问；
+     * 上一次留下的套接字文件直接删掉
+     */
+    static ServerSocketChannel bind(Path socket) throws IOException {
+        Path dir = socket.toAbsolutePath().getParent();
+        boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+        if (!Files.exists(dir)) {
+            if (posix) {
+                Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(
+                        PosixFilePermissions.fromString(OWNER_ONLY_DIR)));
+            } else {
+                Files.createDirectories(dir);
+            }
+        }
+        if (posix) {
+            PosixFileAttributes attributes = Files.readAttributes(dir, PosixFileAttributes.class,
+                    LinkOption.NOFOLLOW_LINKS);
+            String user = System.getProperty("user.name");
+            if (!attributes.isDirectory() || !attributes.owner().getName().equals(user)
+                    || !PosixFilePermissions.toString(attributes.permissions()).equals(OWNER_ONLY_DIR)) {
+                throw new IOException("socket directory must be owned by " + user + " with mode 0700: " + dir);
+            }
+        }
+        Files.deleteIfExists(socket);
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            if (posix) {
+                Files.setPosixFilePermissions(socket, PosixFilePermissions.fromString(OWNER_ONLY_FILE));
+            }
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        return server;
+    }
+
+    /**
+     * 接受连接直到 server 被关闭
+     */
+    static void listen(ServerSocketChannel server) throws IOException {
+        ExecutorService workers = Executors.newCachedThreadPool();
+        try {
+            while (true) {
+                SocketChannel channel;
+                try {
+                    channel = server.accept();
+                } catch (ClosedChannelException e) {
+                    return;
+                }
+                workers.execute(() -> {
+                    try (channel) {
+                        serve(Channels.newInputStream(channel), Channels.newOutputStream(channel));
+                    } catch (IOException e) {
+                        // 客户端断开，丢掉这个连接即可
+                    }
+                });
+            }
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    /**
+     * 逐行处理请求，直到输入结束
+     */
+    static void serve(InputStream in, OutputStream out) throws IOException {
+        var reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            var err = new ByteArrayOutputStream();
+            int status = handle(line.split("\t", -1), new PrintStream(err, true, StandardCharsets.UTF_8));
+            byte[] body = err.toByteArray();
+            out.write((status + " " + body.length + "\n").getBytes(StandardCharsets.UTF_8));
+            out.write(body);
+            out.flush();
+        }
+    }
+
+    /**
+     * 编译一个请求；App.main 里没有捕获的异常在这里按 JVM 的格式打印，退出码为 1
+     */
+    static int handle(String[] fields, PrintStream err) {
+        try {
+            Path cwd = Path.of(fields[0]);
+            if (!cwd.isAbsolute()) {
+                err.println("Working directory must be an absolute path: " + fields[0]);
+                return 2;
+            }
+            String[] args = Arrays.copyOfRange(fields, 1, fields.length);
+            for (String arg : args) {
+                // 标准输入输出就是请求和回复，不能当作源码或输出文件
+                if (arg.equals("-")) {
+                    err.println("The compile server cannot read or write standard input/output ('-').");
+                    return 2;
+                }
+            }
+            return App.run(args, cwd, err);
+        } catch (OutOfMemoryError e) {
+            throw e;
+        } catch (Throwable e) {
+            err.print("Exception in thread \"main\" ");
+            e.printStackTrace(err);
+            return 1;
+        }
+    }
+}
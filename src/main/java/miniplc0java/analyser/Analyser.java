@@ -6,21 +6,27 @@ import miniplc0java.error.ErrorCode;
 import miniplc0java.error.ExpectedTokenError;
 import miniplc0java.error.TokenizeError;
 import miniplc0java.instruction.*;
+import miniplc0java.ir.*;
 import miniplc0java.tokenizer.*;
-import miniplc0java.util.Pos;
 import org.checkerframework.checker.units.qual.A;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinTask;
 
 public final class Analyser {
 
     Tokenizer tokenizer;
+    /** 按下标读取的 Token 缓冲区 */
+    TokenStream tokens;
 //    ArrayList<Instruction> instructions;
-    ArrayList<Symbol> localTable = new ArrayList<>();
-    Intermediate intermediate = Intermediate.getIntermediate();
+    /** 全局变量和局部变量 */
+    SymbolTable symbols = new SymbolTable();
+    /** 这次编译的上下文和其中的中间代码 */
+    final CompilationContext context;
+    Intermediate intermediate;
 
-    /** 当前偷看的 token */
-    Token peekedToken = null;
+    /** 下一个 token 的下标 */
+    int cursor = 0;
 
     /** 符号表 */
     HashMap<String, Symbol> symbolTable = new HashMap<>();
@@ -30,43 +36,108 @@ public final class Analyser {
     /** 下一个变量的栈偏移 */
     int nextOffset = 0;
 
+    /** 增量编译时记录每个函数对全局状态的影响，见 IncrementalCompiler */
+    boolean recording = false;
+    /** 正在分析的函数的记录，分析全局变量时为 null */
+    FunctionRecord record;
+
+    /** 并行分析函数体时，只能看到槽位小于它的全局变量和地址不大于它的函数，即声明在前面的 */
+    private int visibleSlots = Integer.MAX_VALUE;
+    private int visibleFunctions = Integer.MAX_VALUE;
+
+    /** 并行分析时第一遍留下的函数体 */
+    private static final class Body {
+        final Function function;
+        /** 函数名的 Token */
+        final int name;
+        /** 函数体开头 { 的 Token */
+        final int open;
+
+        Body(Function function, int name, int open) {
+            this.function = function;
+            this.name = name;
+            this.open = open;
+        }
+    }
+
     public Analyser(Tokenizer tokenizer) {
+        this(new CompilationContext(), tokenizer);
+    }
+
+    public Analyser(CompilationContext context, Tokenizer tokenizer) {
+        this(context, new TokenStream(tokenizer));
         this.tokenizer = tokenizer;
 //        this.instructions = new ArrayList<>();
     }
 
+    /**
+     * 从预先分析好的 Token 缓冲区读取，见 ParallelLexer
+     */
+    public Analyser(CompilationContext context, TokenStream tokens) {
+        this.context = context;
+        this.intermediate = context.getIntermediate();
+        this.tokens = tokens;
+    }
+
+    /**
+     * 分析一个函数体，和 parent 共用 Token 和全局状态，局部符号表是自己的
+     */
+    private Analyser(Analyser parent, Body body) {
+        this(parent.context, parent.tokens);
+        this.symbols = new SymbolTable(parent.symbols);
+        this.cursor = body.open;
+        this.visibleSlots = intermediate.getSymbolAddress(body.function.getName());
+        this.visibleFunctions = intermediate.getFnAddress(body.function.getName());
+    }
+
     public Intermediate analyse() throws CompileError {
-        analyseProgram();
+        try {
+            if (context.isParallel() && analyseProgramParallel()) {
+                return intermediate;
+            }
+            analyseProgram();
+        } catch (CompileError e) {
+            throw e.locate(tokens.lines());
+        } catch (StackOverflowError e) {
+            throw tooDeep();
+        }
         return intermediate;
     }
 
+    /**
+     * 栈不够用时的错误，位置是正在分析的 Token
+     * 分析和代码生成都是递归的，需要的栈和源码的嵌套深度成正比，见 CompilationContext.deep
+     */
+    CompileError tooDeep() {
+        long pos = 0;
+        try {
+            pos = tokens.start(cursor);
+        } catch (TokenizeError e) {
+            // 正在读这个 Token 的时候栈就用完了，没有位置
+        }
+        return new AnalyzeError(ErrorCode.NestingTooDeep, pos).locate(tokens.lines());
+    }
+
     /**
      * 查看下一个 Token
      *
-     * @return
+     * @return 这个 token 的下标
      * @throws TokenizeError
      */
-    private Token peek() throws TokenizeError {
-        if (peekedToken == null) {
-            peekedToken = tokenizer.nextToken();
-        }
-        return peekedToken;
+    private int peek() throws TokenizeError {
+        tokens.type(cursor);
+        return cursor;
     }
 
     /**
      * 获取下一个 Token
      *
-     * @return
+     * @return 这个 token 的下标
      * @throws TokenizeError
      */
-    private Token next() throws TokenizeError {
-        if (peekedToken != null) {
-            var token = peekedToken;
-            peekedToken = null;
-            return token;
-        } else {
-            return tokenizer.nextToken();
-        }
+    private int next() throws TokenizeError {
+        tokens.type(cursor);
+        return cursor++;
     }
 
     /**
@@ -76,24 +147,22 @@ public final class Analyser {
      * @return
      * @throws TokenizeError
      */
-    private boolean check(TokenType tt) throws TokenizeError {
-        var token = peek();
-        return token.getTokenType() == tt;
+    boolean check(TokenType tt) throws TokenizeError {
+        return tokens.type(cursor) == tt;
     }
 
     /**
      * 如果下一个 token 的类型是 tt，则前进一个 token 并返回这个 token
      *
      * @param tt 类型
-     * @return 如果匹配则返回这个 token，否则返回 null
+     * @return 如果匹配则返回这个 token 的下标，否则返回 -1
      * @throws TokenizeError
      */
-    private Token nextIf(TokenType tt) throws TokenizeError {
-        var token = peek();
-        if (token.getTokenType() == tt) {
+    private int nextIf(TokenType tt) throws TokenizeError {
+        if (tokens.type(cursor) == tt) {
             return next();
         } else {
-            return null;
+            return -1;
         }
     }
 
@@ -101,15 +170,14 @@ public final class Analyser {
      * 如果下一个 token 的类型是 tt，则前进一个 token 并返回，否则抛出异常
      *
      * @param tt 类型
-     * @return 这个 token
+     * @return 这个 token 的下标
      * @throws CompileError 如果类型不匹配
      */
-    private Token expect(TokenType tt) throws CompileError {
-        var token = peek();
-        if (token.getTokenType() == tt) {
+    private int expect(TokenType tt) throws CompileError {
+        if (tokens.type(cursor) == tt) {
             return next();
         } else {
-            throw new ExpectedTokenError(tt, token);
+            throw new ExpectedTokenError(tt, tokens.token(cursor));
         }
     }
 
@@ -123,45 +191,30 @@ public final class Analyser {
     }
 
     public Symbol checkLocalSymbol(String name, int level) {
-        for (int i=localTable.size()-1; i>=0; i--) {
-            if(localTable.get(i).getName().equals(name) && localTable.get(i).getLevel()<=level && localTable.get(i).getLevel()!=0){
-                return localTable.get(i);
-            }
-        }
-        return null;
+        return symbols.lookup(name, level, 1);
     }
 
     public Symbol getSymbol(String name, int level) {
-        for (int i=0; i<localTable.size(); i++) {
-            if (localTable.get(i).name.equals(name) && localTable.get(i).getLevel()==level) {
-                return localTable.get(i);
-            }
-        }
-        return null;
+        return symbols.lookup(name, level, level);
     }
 
-    public Symbol useSymbol(String name, int level, Pos curPos) throws AnalyzeError {
-        for(int i=localTable.size()-1; i>=0; i--){
-            if(localTable.get(i).getName().equals(name) && localTable.get(i).getLevel() <= level){
-                return localTable.get(i);
-            }
+    public Symbol useSymbol(String name, int level, long curPos) throws AnalyzeError {
+        Symbol symbol = symbols.lookup(name, level, 0);
+        if (symbol == null || (symbol.getLevel() == 0 && symbol.getStackOffset() >= visibleSlots)) {
+            throw new AnalyzeError(ErrorCode.NotDeclared, curPos);
         }
-        throw new AnalyzeError(ErrorCode.NotDeclared, curPos);
+        return symbol;
     }
 
-    private void addSymbol(String name, boolean isInitialized, boolean isConstant, String type, Pos curPos,int level,int offSet) throws AnalyzeError {
+    private void addSymbol(String name, boolean isInitialized, boolean isConstant, Type type, long curPos,int level,int offSet) throws AnalyzeError {
         if (checkLocalSymbol(name, level) != null) {
             throw new AnalyzeError(ErrorCode.DuplicateDeclaration, curPos);
         }
         else {
-            this.localTable.add(new Symbol(name, type, isConstant, isInitialized, offSet, level));
+            this.symbols.add(new Symbol(name, type, isConstant, isInitialized, offSet, level));
         }
     }
 
-    private void pop(int level) {
-        localTable.removeIf(s->s.getLevel()==level);
-    }
-
     /**
      * 设置符号为已赋值
      *
@@ -169,7 +222,7 @@ public final class Analyser {
      * @param curPos 当前位置（报错用）
      * @throws AnalyzeError 如果未定义则抛异常
      */
-    private void declareSymbol(String name, int level, Pos curPos) throws AnalyzeError {
+    private void declareSymbol(String name, int level, long curPos) throws AnalyzeError {
         var entry = getSymbol(name, level);
         if (entry == null) {
             throw new AnalyzeError(ErrorCode.NotDeclared, curPos);
@@ -186,7 +239,7 @@ public final class Analyser {
      * @return 栈偏移
      * @throws AnalyzeError
      */
-    private int getOffset(String name, int level, Pos curPos) throws AnalyzeError {//TODO 没用
+    private int getOffset(String name, int level, long curPos) throws AnalyzeError {//TODO 没用
         var entry = this.symbolTable.get(name);
         if (entry == null) {
             throw new AnalyzeError(ErrorCode.NotDeclared, curPos);
@@ -195,25 +248,6 @@ public final class Analyser {
         }
     }
 
-    private int getLevelOffset(int level) {
-        int ans=0;
-        if (level == 0) {
-            for (Symbol s: localTable) {
-                if (s.getLevel() == 0) {
-                    ans++;
-                }
-            }
-            return ans;
-        } else {
-            for (Symbol s: localTable) {
-                if (s.getLevel() <= level && s.getLevel()!=0) {
-                    ans++;
-                }
-            }
-            return  ans;
-        }
-    }
-
     /**
      * 获取变量是否是常量
      *
@@ -222,7 +256,7 @@ public final class Analyser {
      * @return 是否为常量
      * @throws AnalyzeError
      */
-    private boolean isConstant(Function list, String name, int level, Pos curPos) throws AnalyzeError {//TODO
+    private boolean isConstant(Function list, String name, int level, long curPos) throws AnalyzeError {//TODO
         Symbol sy;
         int offset;
         if ((sy=checkLocalSymbol(name, level))!=null) {//查找局部变量
@@ -234,7 +268,7 @@ public final class Analyser {
         }
     }
 
-    private boolean isInitialized(Function list, String name, int level, Pos curPos) throws AnalyzeError {
+    private boolean isInitialized(Function list, String name, int level, long curPos) throws AnalyzeError {
         Symbol sy;
         int offset;
         if ((sy=checkLocalSymbol(name, level))!=null) {//查找局部变量
@@ -250,232 +284,325 @@ public final class Analyser {
         // 示例函数，示例如何调用子程序
         Function list = new Function("_start");
         while (!check(TokenType.EOF)) {
-            if (check(TokenType.FN_KW)) {
-                analyseFunction();
-            } else {
-                if (check(TokenType.LET_KW)) {
-                    analyseLetStatement(list, 0);
-                } else if (check(TokenType.CONST_KW)) {
-                    analyseConstStatement(list, 0);
+            // 之前的声明已经分析完，它们的 token 不会再用到
+            tokens.release(cursor);
+            analyseDeclarationDeep(list);
+        }
+        finishProgram(list);
+    }
+
+    /**
+     * 两遍分析，生成的代码和 analyseProgram 逐字节相同
+     * 第一遍按顺序分析全局变量和函数头，函数体只扫一遍 Token，按出现的顺序给其中调用的库函数分配槽位、
+     * 把字符串放进常量池，所以全局符号表和常量池和顺序分析时完全相同；
+     * 第二遍在 ForkJoinPool 上并行分析各个函数体，这时全局状态只读
+     * @return 出错时返回 false，状态已经清空，由调用者顺序分析一遍报出第一个错误
+     */
+    private boolean analyseProgramParallel() {
+        try {
+            Function list = new Function("_start");
+            ArrayList<Body> bodies = new ArrayList<>();
+            while (!check(TokenType.EOF)) {
+                if (check(TokenType.FN_KW)) {
+                    int name = cursor + 1;
+                    Function function = analyseSignature();
+                    bodies.add(new Body(function, name, cursor));
+                    skipBody();
+                } else {
+                    analyseDeclaration(list);
                 }
             }
+            ArrayList<ForkJoinTask<Void>> tasks = new ArrayList<>();
+            for (Body body : bodies) {
+                Analyser worker = new Analyser(this, body);
+                tasks.add(ForkJoinTask.adapt(() -> {
+                    worker.analyseBody(body.function, body.name);
+                    return null;
+                }));
+            }
+            ForkJoinTask.invokeAll(tasks);
+            finishProgram(list);
+            return true;
+        } catch (CompileError | RuntimeException | StackOverflowError e) {
+            // 线程池的线程栈比较小，嵌套很深的函数体在这里放不下，也回到顺序分析
+            intermediate = context.reset();
+            symbols = new SymbolTable();
+            cursor = 0;
+            return false;
         }
-        Intermediate.getIntermediate().addFunction(list);
-        Function temp=intermediate.getFn("main",peek().getStartPos());
-        list.addInstruction(new Instruction(Operation.STACKALLOC, temp.getReturnSlots(), 4));
+    }
+
+    /**
+     * 跳过函数体，按出现的顺序登记其中调用的库函数和 putstr 的字符串
+     */
+    private void skipBody() throws CompileError {
+        expect(TokenType.L_BRACE);
+        int depth = 1;
+        while (depth > 0) {
+            int t = next();
+            switch (tokens.type(t)) {
+                case L_BRACE:
+                    depth++;
+                    break;
+                case R_BRACE:
+                    depth--;
+                    break;
+                case IDENT:
+                    if (check(TokenType.L_PAREN) && Function.standardFunction.get(tokens.text(t)) != null) {
+                        intermediate.addLibFunction(tokens.text(t));
+                    }
+                    break;
+                case Str:
+                    intermediate.addString(tokens.text(t));
+                    break;
+                case EOF:
+                    throw new ExpectedTokenError(TokenType.R_BRACE, tokens.token(t));
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * 分析一个顶层声明，栈不够时撤销它的影响，在栈加倍的新线程上重新分析，直到 MAX_STACK
+     * 这个声明的 Token 要到下一个声明开始时才 release，所以流式读取的源码也能重新分析
+     */
+    void analyseDeclarationDeep(Function list) throws CompileError {
+        int start = cursor;
+        Intermediate.Mark mark = intermediate.mark();
+        int body = list.body.statements.size();
+        long size = context.getStackSize();
+        try {
+            analyseDeclaration(list);
+            return;
+        } catch (StackOverflowError e) {
+            // 下面在新线程上重新分析
+        }
+        while (size < CompilationContext.MAX_STACK) {
+            symbols.rollback(intermediate.rollback(mark));
+            list.body.statements.subList(body, list.body.statements.size()).clear();
+            cursor = start;
+            size = Math.min(size * 2, CompilationContext.MAX_STACK);
+            try {
+                CompilationContext.onThread(() -> {
+                    analyseDeclaration(list);
+                    return null;
+                }, size);
+                return;
+            } catch (StackOverflowError e) {
+                // 还不够，继续加倍
+            }
+        }
+        throw tooDeep();
+    }
+
+    /**
+     * 分析一个顶层声明：函数，或者初始化代码放进 _start 的全局变量、常量
+     */
+    void analyseDeclaration(Function list) throws CompileError {
+        record = null;
+        if (check(TokenType.FN_KW)) {
+            analyseFunction();
+        } else if (check(TokenType.LET_KW)) {
+            list.body.add(analyseLetStatement(list, 0));
+        } else if (check(TokenType.CONST_KW)) {
+            list.body.add(analyseConstStatement(list, 0));
+        } else {
+            throw new ExpectedTokenError(List.of(TokenType.FN_KW, TokenType.LET_KW, TokenType.CONST_KW), tokens.token(next()));
+        }
+    }
+
+    /**
+     * 所有声明分析完之后，在 _start 末尾调用 main，生成 _start 的代码
+     */
+    void finishProgram(Function list) throws CompileError {
+        intermediate.addFunction(list);
+        Function temp=intermediate.getFn("main",tokens.start(peek()));
         int begin=intermediate.getFnAddress("main");
-        list.addInstruction(new Instruction(Operation.CALL, begin, 4));
-        intermediate.addGlobalSymbol("_start", peek().getStartPos());
+        list.body.add(new ExprStatement(new Call(temp, begin, List.of())));
+        intermediate.addGlobalSymbol("_start", tokens.start(peek()));
+        CodeGenerator.generate(intermediate, list, context.getPeephole());
+        intermediate.resolveStrings();
         expect(TokenType.EOF);
     }
 
-    private void analyseStatement(Function list, int level) throws CompileError {
+    private Stmt analyseStatement(Function list, int level) throws CompileError {
         if (check(TokenType.LET_KW)) {
-            analyseLetStatement(list, level);
+            return analyseLetStatement(list, level);
         } else if (check(TokenType.IF_KW)) {
-            analyseIfStatement(list, level);
+            return analyseIfStatement(list, level);
         } else if (check(TokenType.CONST_KW)) {
-            analyseConstStatement(list, level);
+            return analyseConstStatement(list, level);
         } else if (check(TokenType.WHILE_KW)) {
-            analyseWhileStatement(list, level);
+            return analyseWhileStatement(list, level);
         } else if (check(TokenType.RETURN_KW)) {
-            analyseReturnStatement(list, level);
+            return analyseReturnStatement(list, level);
         } else if (check(TokenType.L_BRACE)) {
-            analyseBlockStatement(list, level);
+            return analyseBlockStatement(list, level);
         } else if (check(TokenType.SEMICOLON)) {
-            analyseEmptyStatement(list, level);
+            return analyseEmptyStatement(list, level);
         } else {
-            analyseAssignStatement(list, level);
+            return analyseAssignStatement(list, level);
         }
     }
 
-    private void analyseAssignStatement(Function list, int level) throws CompileError {
-        analyseAssign(list, level);
+    private Stmt analyseAssignStatement(Function list, int level) throws CompileError {
+        Expr expr = analyseAssign(list, level);
         expect(TokenType.SEMICOLON);
+        return new ExprStatement(expr);
     }
 
-    private void analyseLetStatement(Function list, int level) throws CompileError {
+    private Stmt analyseLetStatement(Function list, int level) throws CompileError {
         expect(TokenType.LET_KW);
-        Token token = expect(TokenType.IDENT);
-        String name=token.getValueString();
+        int token = expect(TokenType.IDENT);
+        String name=tokens.text(token);
         expect(TokenType.COLON);
-        Token temp = expect(TokenType.Ty);
-        if (temp.getValueString().equals("void")) {
-            throw new AnalyzeError(ErrorCode.InvalidAssignment, temp.getStartPos());
-        }
-        int position;
-        if (level == 0) {//全局变量
-            intermediate.addGlobalVar(name, token.getStartPos());
-            intermediate.addGlobalVar(new GlobalSymbol(token.getValueString(), false));
-            position = getLevelOffset(level);
-        } else {
-            if (level == 1) {//传进来的参数不能在第一层再次定义
-                list.InParamsList(name, token.getStartPos());
-            }
-            list.localSum++;
-            position = list.getLocalSum()-1;
-        }
-        addSymbol(name, false, false, temp.getValueString(), token.getStartPos(), level, position);
+        int temp = expect(TokenType.Ty);
+        Type type = Type.of(tokens.text(temp));
+        if (type == Type.VOID) {
+            throw new AnalyzeError(ErrorCode.InvalidAssignment, tokens.start(temp));
+        }
+        Variable variable = declareVariable(list, name, type, token, level);
+        addSymbol(name, false, false, type, tokens.start(token), level, variable.index);
+        Expr init = null;
         if (check(TokenType.ASSIGN)) {
             next();
-            if (level == 0) {
-                position = Intermediate.getIntermediate().getNextGlobalVarOffset();
-                list.addInstruction(new Instruction(Operation.GLOBA, position, 4));
-            } else {
-                position = list.getNextLocalOffset();
-                list.addInstruction(new Instruction(Operation.LOCA, position, 4));
-            }
-            analyseAssign(list, level);
-            list.addInstruction(new Instruction(Operation.STORE_64));
-            declareSymbol(name, level, token.getStartPos());
+            init = analyseAssign(list, level);
+            declareSymbol(name, level, tokens.start(token));
         }
         expect(TokenType.SEMICOLON);
+        return new Declare(variable, false, init);
     }
 
-    private void analyseConstStatement(Function list, int level) throws CompileError {
+    private Stmt analyseConstStatement(Function list, int level) throws CompileError {
         expect(TokenType.CONST_KW);
-        Token token = expect(TokenType.IDENT);
-        String name = token.getValueString();
+        int token = expect(TokenType.IDENT);
+        String name = tokens.text(token);
         expect(TokenType.COLON);
-        Token temp = expect(TokenType.Ty);
-        if (temp.getValueString().equals("void")) {
-            throw new AnalyzeError(ErrorCode.InvalidAssignment, temp.getStartPos());
-        }
-        int position;
-        if (level == 0) {//全局变量
-            intermediate.addGlobalVar(token.getValueString(), token.getStartPos());
-            intermediate.addGlobalVar(new GlobalSymbol(token.getValueString(), false));
-            position = getLevelOffset(level);
-        } else {
-            if (level == 1) {
-                list.InParamsList(name, token.getStartPos());
-            }
-            list.localSum++;
-            position = list.getLocalSum()-1;
-        }
-        addSymbol(name, false, true, temp.getValueString(), token.getStartPos(), level, position);
+        int temp = expect(TokenType.Ty);
+        Type type = Type.of(tokens.text(temp));
+        if (type == Type.VOID) {
+            throw new AnalyzeError(ErrorCode.InvalidAssignment, tokens.start(temp));
+        }
+        Variable variable = declareVariable(list, name, type, token, level);
+        addSymbol(name, false, true, type, tokens.start(token), level, variable.index);
+        Expr init;
         if (check(TokenType.ASSIGN)) {
             next();
-            if (level == 0) {
-                position = Intermediate.getIntermediate().getNextGlobalVarOffset();
-                list.addInstruction(new Instruction(Operation.GLOBA, position, 4));
-            } else {
-                position = list.getNextLocalOffset();
-                list.addInstruction(new Instruction(Operation.LOCA, position, 4));
-            }
-            analyseAssign(list, level);
-            list.addInstruction(new Instruction(Operation.STORE_64));
-            declareSymbol(token.getValueString(), level, token.getStartPos());
+            init = analyseAssign(list, level);
+            declareSymbol(tokens.text(token), level, tokens.start(token));
         } else {
-            throw new ExpectedTokenError(List.of(TokenType.ASSIGN), next());
+            throw new ExpectedTokenError(List.of(TokenType.ASSIGN), tokens.token(next()));
         }
         expect(TokenType.SEMICOLON);
+        // 初始值折叠成了常量，读它的地方都换成字面量，不用再存进变量，槽位照常保留
+        if (init instanceof IntLiteral && init.type == type) {
+            getSymbol(name, level).setValue((IntLiteral) init);
+            return new Block();
+        }
+        return new Declare(variable, true, init);
     }
 
-    private void analyseIfStatement(Function list, int level) throws CompileError {//TODO
+    /**
+     * 给 let、const 声明的变量分配位置：第 0 层是全局变量的槽位，其余是局部变量的下标
+     */
+    private Variable declareVariable(Function list, String name, Type type, int token, int level) throws CompileError {
+        if (level == 0) {//全局变量
+            int position = intermediate.addGlobalVar(new GlobalSymbol(name, false), tokens.start(token));
+            return new Variable(Variable.Scope.GLOBAL, position, type);
+        }
+        if (level == 1) {//传进来的参数不能在第一层再次定义
+            list.InParamsList(name, tokens.start(token));
+        }
+        list.localSum++;
+        return new Variable(Variable.Scope.LOCAL, list.getLocalSum()-1, type);
+    }
+
+    private Stmt analyseIfStatement(Function list, int level) throws CompileError {
         expect(TokenType.IF_KW);
-        analyseAssign(list, level);
-//        list.addInstruction(new Instruction(Operation.BR_TRUE, 1, 4));
-//        list.addInstruction();
-        ArrayList<Integer> add=new ArrayList<Integer>();
-        ArrayList<Integer> nextAdd=new ArrayList<Integer>();
-        ArrayList<Integer> end=new ArrayList<Integer>();
-        int end1;
-        int k1=0;
-        list.addInstruction(new Instruction(Operation.BR_TRUE,1,4));
-        add.add(list.getInstructionsList().size());//需要修改跳转地址的位置
-        list.addInstruction(new Instruction(Operation.BR,0,4));
-        analyseBlockStatement(list,level);
-        if(check(TokenType.ELSE_KW)){
+        ArrayList<Expr> conditions = new ArrayList<>();
+        ArrayList<Block> blocks = new ArrayList<>();
+        Block otherwise = null;
+        conditions.add(analyseAssign(list, level));
+        blocks.add(analyseBlockStatement(list, level));
+        if (check(TokenType.ELSE_KW)) {
             next();
-            end.add(list.getInstructionsList().size());//跳出if else语句需要修改的跳转地址位置
-            list.addInstruction(new Instruction(Operation.BR,0,4));
-            while (check(TokenType.IF_KW)){
+            boolean last = false;
+            while (check(TokenType.IF_KW)) {
                 next();
-                nextAdd.add(list.getInstructionsList().size());//回填地址
-                analyseAssign(list, level);
-                list.addInstruction(new Instruction(Operation.BR_TRUE,1,4));
-                add.add(list.getInstructionsList().size());//需要修改跳转地址的位置
-                list.addInstruction(new Instruction(Operation.BR,0,4));
-                analyseBlockStatement(list, level);
-                end.add(list.getInstructionsList().size());
-                list.addInstruction(new Instruction(Operation.BR,0,4));
-                if (!check(TokenType.ELSE_KW)){
-                    k1=1;
+                conditions.add(analyseAssign(list, level));
+                blocks.add(analyseBlockStatement(list, level));
+                if (!check(TokenType.ELSE_KW)) {
+                    last = true;
                     break;
                 }
-                else{
-                    next();
-                }
-            }
-            nextAdd.add(list.getInstructionsList().size());
-            if(k1==0){
-                analyseBlockStatement(list, level);
-            }
-            end1=list.getInstructionsList().size();//结束地址
-            for(int i=0;i<add.size();i++){
-                list.instructionsList.set(add.get(i),new Instruction(Operation.BR,nextAdd.get(i)-add.get(i)-1,4));
+                next();
             }
-            for(int i=0;i<end.size();i++){
-                list.instructionsList.set(end.get(i),new Instruction(Operation.BR,end1-end.get(i)-1,4));
+            if (!last) {
+                otherwise = analyseBlockStatement(list, level);
             }
         }
-        else{
-            list.instructionsList.set(add.get(0),new Instruction(Operation.BR,list.getInstructionsList().size()-add.get(0)-1,4));
-        }
+        return new If(conditions, blocks, otherwise);
     }
 
-    private void analyseWhileStatement(Function list, int level) throws CompileError {
+    private Stmt analyseWhileStatement(Function list, int level) throws CompileError {
         expect(TokenType.WHILE_KW);
-        int point1 = list.getInstructionsList().size();//跳转点1
-        list.addInstruction(new Instruction(Operation.BR, 0, 4));
-        analyseAssign(list, level);
-        list.addInstruction(new Instruction(Operation.BR_TRUE, 1, 4));
-        int point2 = list.getInstructionsList().size();
-        list.addInstruction(new Instruction(Operation.BR, 0 ,4));
-        analyseBlockStatement(list, level);
-        list.addInstruction(new Instruction(Operation.BR, point1-list.getInstructionsList().size(), 4));
-        int point3 = list.getInstructionsList().size();
-        list.getInstructionsList().set(point2, new Instruction(Operation.BR, point3-point2-1, 4));
-    }
-
-    private void analyseReturnStatement(Function list, int level) throws CompileError {
+        Expr condition = analyseAssign(list, level);
+        return new While(condition, analyseBlockStatement(list, level));
+    }
+
+    private Stmt analyseReturnStatement(Function list, int level) throws CompileError {
         expect(TokenType.RETURN_KW);
-        if (!list.getType().equals("void")) {
-            list.addInstruction(new Instruction(Operation.ARGA, 0, 4));
-        }
-        String type="void";
+        Expr value = null;
+        Type type=Type.VOID;
         if(!check(TokenType.SEMICOLON)) {
-            type = analyseAssign(list, level);
-            list.addInstruction(new Instruction(Operation.STORE_64));
+            value = analyseAssign(list, level);
+            type = value.type;
         }
-        if (!list.getType().equals(type)) {
-            throw new AnalyzeError(ErrorCode.ExpectedToken, new Pos(0,0));
+        if (list.getType() != type) {
+            throw new AnalyzeError(ErrorCode.ExpectedToken, 0);
         }
         list.isReturned = true;
-        list.addInstruction(new Instruction(Operation.RET));
         expect(TokenType.SEMICOLON);
+        return new Return(value);
     }
 
-    private void analyseBlockStatement(Function list, int level) throws CompileError {
+    private Block analyseBlockStatement(Function list, int level) throws CompileError {
         level++;
+        symbols.push();
         expect(TokenType.L_BRACE);
+        Block block = new Block();
         while (!check(TokenType.R_BRACE)) {
-            analyseStatement(list, level);
+            block.add(analyseStatement(list, level));
         }
-        pop(level);
+        symbols.pop();
         expect(TokenType.R_BRACE);
+        return block;
     }
 
-    private void analyseEmptyStatement(Function list, int level) throws CompileError {
+    // 空语句当作空的语句块
+    private Stmt analyseEmptyStatement(Function list, int level) throws CompileError {
         expect(TokenType.SEMICOLON);
+        return new Block();
     }
 
     private void analyseFunction() throws CompileError {
-        expect(TokenType.FN_KW);
-        Token temp = expect(TokenType.IDENT);
-        Function list = new Function(temp.getValueString());
-        intermediate.addGlobalSymbol(temp.getValueString(), temp.getStartPos());
+        int name = cursor + 1;
+        Function list = analyseSignature();
+        analyseBody(list, name);
+    }
+
+    /**
+     * 分析函数头，函数名入全局符号表、函数入 fnList，停在函数体的 { 上
+     */
+    private Function analyseSignature() throws CompileError {
+        int start = expect(TokenType.FN_KW);
+        int temp = expect(TokenType.IDENT);
+        Function list = new Function(tokens.text(temp));
+        if (recording) {
+            record = new FunctionRecord(list, start, temp);
+        }
+        intermediate.addGlobalSymbol(tokens.text(temp), tokens.start(temp));
         intermediate.addFunction(list);
         expect(TokenType.L_PAREN);
         while (!check(TokenType.R_PAREN)){
@@ -488,24 +615,33 @@ public final class Analyser {
         }
         expect(TokenType.R_PAREN);
         expect(TokenType.ARROW);
-        Token return_type = expect(TokenType.Ty);
-        list.setReturn(return_type.getValueString());
-        analyseBlockStatement(list, 0);
+        int return_type = expect(TokenType.Ty);
+        list.setReturn(Type.of(tokens.text(return_type)));
+        return list;
+    }
+
+    /**
+     * 分析函数体，然后生成它的代码
+     * @param name 函数名的 Token，报错用
+     */
+    private void analyseBody(Function list, int name) throws CompileError {
+        list.body = analyseBlockStatement(list, 0);
         if(!list.isReturned()){
-            list.addInstruction(new Instruction(Operation.RET));
-            list.returnFn("void",temp.getStartPos());
+            list.body.add(new Return(null));
+            list.returnFn(Type.VOID,tokens.start(name));
         }
+        CodeGenerator.generate(intermediate, list, context.getPeephole());
     }
 
     private void analyseParam(Function list) throws CompileError {
-        Token temp = peek();
+        int temp = peek();
         if (check(TokenType.CONST_KW)) {
             temp=next();
         }
-        Token token = expect(TokenType.IDENT);
+        int token = expect(TokenType.IDENT);
         expect(TokenType.COLON);
-        Token return_type = expect(TokenType.Ty);
-        list.addParam(token.getValueString(), return_type.getValueString(), temp.getValueString().equals("const"), token.getStartPos());
+        int return_type = expect(TokenType.Ty);
+        list.addParam(tokens.text(token), Type.of(tokens.text(return_type)), tokens.text(temp).equals("const"), tokens.start(token));
     }
 
     /**
@@ -514,107 +650,80 @@ public final class Analyser {
 
 
 
-    private String analyseAssign(Function list, int level) throws CompileError {
-        Token temp = peek();
-        String type=analyseOperator(list, level);
-        String type_temp;
+    private Expr analyseAssign(Function list, int level) throws CompileError {
+        int temp = peek();
+        Expr left=analyseBinary(list, level, 0);
         if (check(TokenType.ASSIGN)) {
-            if (temp.getTokenType() == TokenType.IDENT) {
-                list.instructionsList.remove(list.instructionsList.size()-1);
-                if (isConstant(list, temp.getValueString(), level, temp.getStartPos())) {
-                    throw new ExpectedTokenError(List.of(TokenType.IDENT, TokenType.Uint, TokenType.L_PAREN), next());
+            // 只能给变量赋值
+            if (tokens.type(temp) == TokenType.IDENT && left instanceof Variable) {
+                if (isConstant(list, tokens.text(temp), level, tokens.start(temp))) {
+                    throw new ExpectedTokenError(List.of(TokenType.IDENT, TokenType.Uint, TokenType.L_PAREN), tokens.token(next()));
                 }
                 next();
-                type_temp=analyseOperator(list, level);
-                if (!type_temp.equals(type)) {
-                    throw new AnalyzeError(ErrorCode.InvalidAssignment, temp.getStartPos());
+                Expr right=analyseBinary(list, level, 0);
+                if (right.type != left.type) {
+                    throw new AnalyzeError(ErrorCode.InvalidAssignment, tokens.start(temp));
                 }
-                list.instructionsList.add(new Instruction(Operation.STORE_64));
+                return new Assign((Variable) left, right);
             } else {
-                throw new ExpectedTokenError(List.of(TokenType.IDENT, TokenType.Uint, TokenType.L_PAREN), next());
+                throw new ExpectedTokenError(List.of(TokenType.IDENT, TokenType.Uint, TokenType.L_PAREN), tokens.token(next()));
             }
-            return "void";
         }
-        return type;
+        return left;
 //        expect(TokenType.SEMICOLON);
     }
 
 
-    private String analyseOperator(Function list, int level) throws CompileError {//运算符表达式
-        String type=analyseExpression(list, level);
-        if (check(TokenType.EQ) || check(TokenType.NEQ) || check(TokenType.LT) || check(TokenType.GT) || check(TokenType.LE) || check(TokenType.GE)){
-            Token temp = next();
-            String type_temp=analyseExpression(list, level);
-            if (!type.equals(type_temp)) {
-                throw new AnalyzeError(ErrorCode.InvalidAssignment, temp.getStartPos());
-            }
-            list.instructionsList.add(new Instruction(Operation.CMP_I));
-            if(temp.getTokenType() == TokenType.EQ){
-                list.instructionsList.add(new Instruction(Operation.NOT));
-            } else if(temp.getTokenType() == TokenType.NEQ){
-            } else if(temp.getTokenType() == TokenType.LT){
-                list.instructionsList.add(new Instruction(Operation.SET_LT));
-            } else if(temp.getTokenType() == TokenType.GT){
-                list.instructionsList.add(new Instruction(Operation.SET_GT));
-            } else if(temp.getTokenType() == TokenType.LE){
-                list.instructionsList.add(new Instruction(Operation.SET_GT));
-                list.instructionsList.add(new Instruction(Operation.NOT));
-            } else if(temp.getTokenType() == TokenType.GE){
-                list.instructionsList.add(new Instruction(Operation.SET_LT));
-                list.instructionsList.add(new Instruction(Operation.NOT));
-            }
-        }
-        return type;
+    /** 二元运算符的结合力，按 TokenType 的序号查，0 表示不是二元运算符；越大结合得越紧 */
+    private static final int[] BINDING = new int[TokenType.values().length];
+    private static final Binary.Op[] OPERATORS = new Binary.Op[TokenType.values().length];
+    /** 比较运算的结合力，比较运算不能连写 */
+    private static final int COMPARE = 1;
+
+    static {
+        bind(TokenType.EQ, COMPARE, Binary.Op.EQ);
+        bind(TokenType.NEQ, COMPARE, Binary.Op.NEQ);
+        bind(TokenType.LT, COMPARE, Binary.Op.LT);
+        bind(TokenType.GT, COMPARE, Binary.Op.GT);
+        bind(TokenType.LE, COMPARE, Binary.Op.LE);
+        bind(TokenType.GE, COMPARE, Binary.Op.GE);
+        bind(TokenType.PLUS, 2, Binary.Op.ADD);
+        bind(TokenType.MINUS, 2, Binary.Op.SUB);
+        bind(TokenType.MUL, 3, Binary.Op.MUL);
+        bind(TokenType.DIV, 3, Binary.Op.DIV);
     }
 
-    private String analyseExpression(Function list, int level) throws CompileError {//表达式
-        String type=analyseItem(list, level);
-        String type_temp;
-        while (check(TokenType.PLUS) || check(TokenType.MINUS)) {
-//            Token temp=next();
-            if (nextIf(TokenType.PLUS) != null) {
-                type_temp=analyseItem(list, level);
-                if (!type.equals(type_temp)) {
-                    throw new AnalyzeError(ErrorCode.InvalidAssignment, new Pos(0,0));
-                }
-                list.instructionsList.add(new Instruction(Operation.ADD_I));
-            } else if (nextIf(TokenType.MINUS) != null) {
-                type_temp=analyseItem(list, level);
-                if (!type.equals(type_temp)) {
-                    throw new AnalyzeError(ErrorCode.InvalidAssignment, new Pos(0,0));
-                }
-                list.instructionsList.add(new Instruction(Operation.SUB_I));
-            } else
-                throw new ExpectedTokenError(List.of(TokenType.PLUS,TokenType.MINUS), next());
-        }
-        return type;
-    }
-
-    private String analyseItem(Function list, int level) throws CompileError {//项
-        String type=analyseFactor(list, level);
-        String type_temp;
-        while (check(TokenType.MUL) || check(TokenType.DIV)) {
-//            Token temp=next();
-            if (nextIf(TokenType.MUL) != null) {
-                type_temp=analyseFactor(list, level);
-                if (!type.equals(type_temp)) {
-                    throw new AnalyzeError(ErrorCode.InvalidAssignment, new Pos(0,0));
-                }
-                list.instructionsList.add(new Instruction(Operation.MUL_I));
-            } else if (nextIf(TokenType.DIV) != null) {
-                type_temp=analyseFactor(list, level);
-                if (!type.equals(type_temp)) {
-                    throw new AnalyzeError(ErrorCode.InvalidAssignment, new Pos(0,0));
-                }
-                list.instructionsList.add(new Instruction(Operation.DIV_I));
-            } else
-                throw new ExpectedTokenError(List.of(TokenType.MUL, TokenType.DIV), next());
+    private static void bind(TokenType type, int power, Binary.Op op) {
+        BINDING[type.ordinal()] = power;
+        OPERATORS[type.ordinal()] = op;
+    }
+
+    /**
+     * 运算符表达式，按结合力做算符优先分析：只有结合力大于 min 的运算符才接到左边，
+     * 左结合的运算符的右边按它自己的结合力分析；加新的运算符只需要在上面的表里登记
+     */
+    private Expr analyseBinary(Function list, int level, int min) throws CompileError {
+        Expr left=analyseFactor(list, level);
+        while (true) {
+            TokenType tt = tokens.type(cursor);
+            int power = BINDING[tt.ordinal()];
+            if (power <= min) {
+                return left;
+            }
+            int temp = next();
+            Expr right=analyseBinary(list, level, power);
+            if (left.type != right.type) {
+                throw new AnalyzeError(ErrorCode.InvalidAssignment, power == COMPARE ? tokens.start(temp) : 0);
+            }
+            left = ConstantFolder.binary(OPERATORS[tt.ordinal()], left, right);
+            if (power == COMPARE) {
+                min = COMPARE;
+            }
         }
-        return type;
     }
 
-    private String analyseFactor(Function list, int level) throws CompileError {//因子
-        String type="void";
+    private Expr analyseFactor(Function list, int level) throws CompileError {//因子
+        Expr factor;
         boolean negate = false;
         while (check(TokenType.MINUS)) {
             next();
@@ -627,112 +736,125 @@ public final class Analyser {
 
         if (check(TokenType.IDENT)) {
             // 调用相应的处理函数
-            Token temp = next();
+            int temp = next();
             if(check(TokenType.L_PAREN)){
-                if (Function.standardFunction.get(temp.getValueString()) != null) {
-                    next();
-                    int offSet = intermediate.insertLibFunctionBefore(list.getName(), temp.getValueString());
-                    switch (temp.getValueString()){
-                        case "getdouble":
-                            list.addInstruction(new Instruction(Operation.STACKALLOC, 1, 4));
-                            break;
-                        case "getint":
-                        case "getchar":
-                            type="int";
-                            list.addInstruction(new Instruction(Operation.STACKALLOC, 1, 4));
-                            break;
-                        case "putstr":
-                            list.addInstruction(new Instruction(Operation.STACKALLOC, 0, 4));
-                            if (check(TokenType.R_PAREN)) {
-                                throw new AnalyzeError(ErrorCode.ExpectedToken, temp.getStartPos());
-                            }
-                            Token t=expect(TokenType.Str);
-                            intermediate.addGlobalSymbolToLastPos(t.getValueString(), t.getStartPos());
-                            offSet=intermediate.getSymbolAddress(t.getValueString());
-                            list.addInstruction(new Instruction(Operation.PUSH, offSet, 8));
-                            offSet=intermediate.getSymbolAddress("putstr");
-                            break;
-                        case "putln":
-                            list.addInstruction(new Instruction(Operation.STACKALLOC, 0, 4));
-                            break;
-                        default:
-                            if (check(TokenType.R_PAREN)) {
-                                throw new AnalyzeError(ErrorCode.ExpectedToken, temp.getStartPos());
-                            }
-                            list.addInstruction(new Instruction(Operation.STACKALLOC, 0, 4));
-                            if (temp.getValueString().equals("putint")||temp.getValueString().equals("putchar")) {
-                                if (!analyseAssign(list, level).equals("int")) {
-                                    throw new AnalyzeError(ErrorCode.InvalidAssignment, temp.getStartPos());
-                                }
-                            }
-                            break;
-                    }
-                    expect(TokenType.R_PAREN);
-                    list.addInstruction(new Instruction(Operation.CALLNAME,offSet,4));
+                if (Function.standardFunction.get(tokens.text(temp)) != null) {
+                    factor = analyseLibCall(list, level, temp);
                 } else {//TODO修改
-                    Function calledFunc = intermediate.getFn(temp.getValueString(), temp.getStartPos());
-                    int flag = 0;
-                    if (calledFunc.isReturned) {
-                        flag = 1;
+                    Function calledFunc = intermediate.getFn(tokens.text(temp), tokens.start(temp));
+                    if (intermediate.getFnAddress(calledFunc.getName()) > visibleFunctions) {
+                        throw new AnalyzeError(ErrorCode.ExpectedToken, tokens.start(temp));
                     }
-                    list.addInstruction(new Instruction(Operation.STACKALLOC, calledFunc.getReturnSlots(), 4));
                     next();
-                    ArrayList<String> paramType = new ArrayList<>();
+                    ArrayList<Expr> arguments = new ArrayList<>();
                     if (check(TokenType.R_PAREN)) {
                         expect(TokenType.R_PAREN);
                     } else {
-                        paramType.add(analyseAssign(list, level));
+                        arguments.add(analyseAssign(list, level));
                         while (check(TokenType.COMMA)) {
                             next();
-                            paramType.add(analyseAssign(list, level));
+                            arguments.add(analyseAssign(list, level));
                         }
                         expect(TokenType.R_PAREN);
                     }
-                    calledFunc.checkParams(paramType, temp.getStartPos());
-                    list.addInstruction(new Instruction(Operation.CALL, intermediate.getFnAddress(calledFunc.getName()), 4));
-                    type=calledFunc.getType();
+                    ArrayList<Type> paramType = new ArrayList<>();
+                    for (Expr argument : arguments) {
+                        paramType.add(argument.type);
+                    }
+                    calledFunc.checkParams(paramType, tokens.start(temp));
+                    factor = new Call(calledFunc, intermediate.getFnAddress(calledFunc.getName()), arguments);
                 }
             } else {
-                if (checkLocalSymbol(temp.getValueString(), level) != null) {
-                    type=checkLocalSymbol(temp.getValueString(), level).type;
-                    list.instructionsList.add(new Instruction(Operation.LOCA, checkLocalSymbol(temp.getValueString(), level).getStackOffset(), 4));
-
-                } else if (list.getOffset(temp.getValueString()) != -1) {
-                    type=list.paramsList.get(list.getOffset(temp.getValueString())).getType();
-                    if (list.returnSlots>0) {
-                        list.instructionsList.add(new Instruction(Operation.ARGA, list.getOffset(temp.getValueString())+1, 4));
-                    } else {
-                        list.instructionsList.add(new Instruction(Operation.ARGA, list.getOffset(temp.getValueString()), 4));
-                    }
-
-
+                Symbol local = checkLocalSymbol(tokens.text(temp), level);
+                int offset;
+                if (local != null && local.getValue() != null) {
+                    factor = local.getValue();
+                } else if (local != null) {
+                    factor = new Variable(Variable.Scope.LOCAL, local.getStackOffset(), local.type);
+                } else if ((offset = list.getOffset(tokens.text(temp))) != -1) {
+                    // 有返回值时参数排在返回值之后
+                    factor = new Variable(Variable.Scope.ARGUMENT, list.returnSlots > 0 ? offset + 1 : offset,
+                            list.paramsList.get(offset).getType());
                 } else {
-                    type=useSymbol(temp.getValueString(), 0, temp.getStartPos()).type;
-                    list.instructionsList.add(new Instruction(Operation.GLOBA, useSymbol(temp.getValueString(), 0, temp.getStartPos()).getStackOffset(), 4));
+                    Symbol global = useSymbol(tokens.text(temp), 0, tokens.start(temp));
+                    factor = global.getValue() != null ? global.getValue()
+                            : new Variable(Variable.Scope.GLOBAL, global.getStackOffset(), global.type);
                 }
-                list.instructionsList.add(new Instruction(Operation.LOAD_64));
             }
         } else if (check(TokenType.Uint)) {
             // 调用相应的处理函数
-            type="int";
-            list.instructionsList.add(new Instruction(Operation.PUSH,Long.parseLong(next().getValueString()), 8));
+            factor = new IntLiteral(tokens.longValue(next()));
         } else if (check(TokenType.Char)) {
-            type="int";
-            list.instructionsList.add(new Instruction(Operation.PUSH, (int)(next().getValue()), 8));
+            factor = new IntLiteral(tokens.longValue(next()));
         } else if (check(TokenType.L_PAREN)) {
             // 调用相应的处理函数
             expect(TokenType.L_PAREN);
-            type=analyseAssign(list, level);
+            factor=analyseAssign(list, level);
             expect(TokenType.R_PAREN);
         } else {
             // 都不是，摸了
-            throw new ExpectedTokenError(List.of(TokenType.IDENT), next());
+            throw new ExpectedTokenError(List.of(TokenType.IDENT), tokens.token(next()));
         }
 
         if (negate) {
-            list.instructionsList.add(new Instruction(Operation.NEG_I));
+            factor = ConstantFolder.negate(factor);
+        }
+        return factor;
+    }
+
+    /**
+     * 库函数调用，temp 是函数名，停在 ( 上
+     * 槽位在这里分配，putstr 的字符串也在这里入常量池，顺序决定了全局符号表的布局
+     */
+    private Expr analyseLibCall(Function list, int level, int temp) throws CompileError {
+        next();
+        String name = tokens.text(temp);
+        int offSet = intermediate.addLibFunction(name);
+        LibCall call;
+        switch (name){
+            case "getdouble":
+                call = new LibCall(name, offSet, Type.VOID, 1);
+                break;
+            case "getint":
+            case "getchar":
+                call = new LibCall(name, offSet, Type.INT, 1);
+                break;
+            default:
+                call = new LibCall(name, offSet, Type.VOID, 0);
+                break;
         }
-        return type;
+        // 先记录外层的调用，重放时槽位的分配顺序和这里相同
+        if (record != null) {
+            record.call(call);
+        }
+        switch (name){
+            case "putstr":
+                if (check(TokenType.R_PAREN)) {
+                    throw new AnalyzeError(ErrorCode.ExpectedToken, tokens.start(temp));
+                }
+                int t=expect(TokenType.Str);
+                call.text = tokens.text(t);
+                call.string = intermediate.addString(call.text);
+                break;
+            case "getdouble":
+            case "getint":
+            case "getchar":
+            case "putln":
+                break;
+            default:
+                if (check(TokenType.R_PAREN)) {
+                    throw new AnalyzeError(ErrorCode.ExpectedToken, tokens.start(temp));
+                }
+                if (name.equals("putint")||name.equals("putchar")) {
+                    call.argument = analyseAssign(list, level);
+                    if (call.argument.type != Type.INT) {
+                        throw new AnalyzeError(ErrorCode.InvalidAssignment, tokens.start(temp));
+                    }
+                }
+                break;
+        }
+        expect(TokenType.R_PAREN);
+        return call;
     }
 
 
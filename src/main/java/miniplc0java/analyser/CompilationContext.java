@@ -0,0 +1,198 @@
+package miniplc0java.analyser;
+
+import miniplc0java.error.AnalyzeError;
+import miniplc0java.error.CompileError;
+import miniplc0java.error.ErrorCode;
+import miniplc0java.instruction.Intermediate;
+import miniplc0java.instruction.Peephole;
+import miniplc0java.tokenizer.ParallelLexer;
+import miniplc0java.tokenizer.SourceBuffer;
+import miniplc0java.tokenizer.StringIter;
+import miniplc0java.tokenizer.Tokenizer;
+
+/**
+ * 一次编译的全部状态：编译选项，以及生成的中间代码和其中的全局符号表
+ * 分析器、函数和写文件都通过它拿到中间代码，不再有全局的单例，
+ * 所以同一个 JVM 里可以有任意多个上下文，分别在不同的线程上编译；
+ * 用完直接丢掉，或者 reset 之后编译下一个程序
+ */
+public final class CompilationContext {
+    /** 分析线程默认的栈大小，大约能放下十万层嵌套的代码块 */
+    public static final long DEFAULT_STACK = 64L << 20;
+    /** 栈不够时自动加倍，最多加到这么大 */
+    public static final long MAX_STACK = 4L << 30;
+
+    private final Tokenizer.Engine engine;
+    private final int jobs;
+    private final boolean parallel;
+    private final long stackSize;
+    private final Peephole peephole;
+    private Intermediate intermediate = new Intermediate();
+
+    public CompilationContext() {
+        this(Tokenizer.Engine.LEGACY, 1);
+    }
+
+    /**
+     * @param engine 词法分析器
+     * @param jobs   大于 1 时先用这么多线程并行地做词法分析，见 ParallelLexer
+     */
+    public CompilationContext(Tokenizer.Engine engine, int jobs) {
+        this(engine, jobs, false);
+    }
+
+    /**
+     * @param parallel 先分析全局变量和函数头，再并行分析函数体，输出和顺序分析相同
+     */
+    public CompilationContext(Tokenizer.Engine engine, int jobs, boolean parallel) {
+        this(engine, jobs, parallel, DEFAULT_STACK);
+    }
+
+    /**
+     * @param stackSize 分析线程的栈大小（字节），见 deep
+     */
+    public CompilationContext(Tokenizer.Engine engine, int jobs, boolean parallel, long stackSize) {
+        this(engine, jobs, parallel, stackSize, new Peephole());
+    }
+
+    /**
+     * @param peephole 生成每个函数的代码之后做的窥孔优化，统计也记在它里面
+     */
+    public CompilationContext(Tokenizer.Engine engine, int jobs, boolean parallel, long stackSize, Peephole peephole) {
+        if (stackSize <= 0) {
+            throw new IllegalArgumentException("stack size must be positive: " + stackSize);
+        }
+        this.engine = engine;
+        this.jobs = jobs;
+        this.parallel = parallel;
+        this.stackSize = stackSize;
+        this.peephole = peephole;
+    }
+
+    public Intermediate getIntermediate() {
+        return intermediate;
+    }
+
+    /**
+     * 换一份空的中间代码、清空窥孔优化的统计，准备编译下一个程序
+     */
+    public Intermediate reset() {
+        intermediate = new Intermediate();
+        peephole.reset();
+        return intermediate;
+    }
+
+    public Tokenizer.Engine getEngine() {
+        return engine;
+    }
+
+    public int getJobs() {
+        return jobs;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public long getStackSize() {
+        return stackSize;
+    }
+
+    public Peephole getPeephole() {
+        return peephole;
+    }
+
+    /**
+     * 按编译选项为源码创建分析器
+     */
+    public Analyser analyser(SourceBuffer source) {
+        if (jobs > 1) {
+            return new Analyser(this, ParallelLexer.lex(source, jobs, engine));
+        }
+        return new Analyser(this, Tokenizer.create(new StringIter(source), engine));
+    }
+
+    /**
+     * 编译整个源码，结果就是 getIntermediate()
+     */
+    public Intermediate compile(SourceBuffer source) throws CompileError {
+        boolean[] started = {false};
+        return deep(() -> {
+            if (started[0]) {
+                // 上一次栈不够，丢掉分析了一半的中间代码
+                reset();
+            }
+            started[0] = true;
+            return analyser(source).analyse();
+        }, source.rereadable());
+    }
+
+    /** 在分析线程上运行的任务 */
+    interface Task<T> {
+        T run() throws CompileError;
+    }
+
+    /**
+     * 在栈大小为 stackSize 的新线程上运行 task，等它结束，结果和异常原样交给调用者
+     * 递归下降的分析和代码生成需要的栈和源码的嵌套深度成正比，调用者线程的栈未必够用；
+     * 顺序分析时每个顶层声明自己会在更大的栈上重新分析（见 Analyser.analyseDeclarationDeep），
+     * 流式读取的源码也不例外；这里兜住并行分析之外剩下的情况：
+     * 栈不够时 task 报 NestingTooDeep，如果可以重新运行（rerun），就把栈加倍再运行一次，
+     * 每次运行的时间和嵌套深度成正比，栈按倍数增长，总时间仍然是线性的
+     * 栈最多加到 MAX_STACK，大约能放下六千万层嵌套，再深就报 NestingTooDeep
+     */
+    <T> T deep(Task<T> task, boolean rerun) throws CompileError {
+        long size = stackSize;
+        while (true) {
+            try {
+                return onThread(task, size);
+            } catch (AnalyzeError e) {
+                if (e.getErr() != ErrorCode.NestingTooDeep || !rerun || size >= MAX_STACK) {
+                    throw e;
+                }
+                size = Math.min(size * 2, MAX_STACK);
+            }
+        }
+    }
+
+    /**
+     * 在栈大小为 size 的新线程上运行 task，等它结束，结果和异常原样交给调用者
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T onThread(Task<T> task, long size) throws CompileError {
+        Object[] result = new Object[1];
+        Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                result[0] = task.run();
+            } catch (Throwable e) {
+                failure[0] = e;
+            }
+        }, "miniplc0-analyser", size);
+        thread.start();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                // 分析不能中途停下，等它结束再恢复中断状态
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        Throwable e = failure[0];
+        if (e == null) {
+            return (T) result[0];
+        } else if (e instanceof CompileError) {
+            throw (CompileError) e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e instanceof Error) {
+            throw (Error) e;
+        }
+        throw new IllegalStateException(e);
+    }
+}
@@ -0,0 +1,64 @@
+package miniplc0java.analyser;
+
+import miniplc0java.error.CompileError;
+import miniplc0java.instruction.Function;
+import miniplc0java.instruction.FunctionParams;
+import miniplc0java.instruction.Intermediate;
+import miniplc0java.ir.LibCall;
+import miniplc0java.tokenizer.TokenStream;
+
+import java.util.ArrayList;
+
+/**
+ * 一个函数分析完之后对全局状态的全部影响，增量编译时用来重放
+ * 函数体之外的状态只有：函数名入全局符号表、函数入 fnList、第一次调用库函数时分配槽位、
+ * putstr 的字符串入常量池；这些操作得到的下标写在 LibCall 和它生成的 CALLNAME、PUSH 里，
+ * 重放时按原来的顺序重新执行，再改写这些下标
+ */
+final class FunctionRecord {
+    final Function function;
+    /** 声明开头的 Token 下标，函数名的下标相对于它 */
+    private final int name;
+    /** 按分析时分配槽位的顺序排列 */
+    private final ArrayList<LibCall> calls = new ArrayList<>();
+
+    /** 分析这个函数时前面所有声明组成的环境，见 IncrementalCompiler */
+    IncrementalCompiler.Env env;
+
+    FunctionRecord(Function function, int start, int name) {
+        this.function = function;
+        this.name = name - start;
+    }
+
+    void call(LibCall call) {
+        calls.add(call);
+    }
+
+    /**
+     * 函数签名，后面的函数只依赖这些
+     */
+    String signature() {
+        StringBuilder s = new StringBuilder(function.getName()).append('(');
+        for (FunctionParams p : function.getParamsList()) {
+            s.append(p.isConstant() ? "const " : "").append(p.getType()).append(',');
+        }
+        return s.append(") -> ").append(function.getType()).toString();
+    }
+
+    /**
+     * 声明现在从第 at 个 Token 开始，按原来的顺序重新执行对全局状态的操作
+     */
+    void replay(Intermediate intermediate, TokenStream tokens, int at) throws CompileError {
+        intermediate.addGlobalSymbol(function.getName(), tokens.start(at + name));
+        intermediate.addFunction(function);
+        for (LibCall call : calls) {
+            call.slot = intermediate.addLibFunction(call.name);
+            call.callName.setX(call.slot);
+            if (call.text != null) {
+                call.string = intermediate.addString(call.text);
+                call.push.setX(call.string);
+                intermediate.addStringRef(call.push);
+            }
+        }
+    }
+}
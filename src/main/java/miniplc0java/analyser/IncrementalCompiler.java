@@ -0,0 +1,255 @@
+package miniplc0java.analyser;
+
+import miniplc0java.error.CompileError;
+import miniplc0java.instruction.Function;
+import miniplc0java.instruction.Intermediate;
+import miniplc0java.tokenizer.SourceBuffer;
+import miniplc0java.tokenizer.TokenStream;
+import miniplc0java.tokenizer.TokenType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * 增量编译，给编辑器用
+ * 保留上一次的 Token 缓冲区和每个函数的分析记录，一次编辑只重新分析编辑附近的 Token，
+ * 只重新分析编辑所在的声明；其余函数重放记录（见 FunctionRecord），结果和从头编译完全相同
+ *
+ * 函数体的分析只依赖前面的全局变量、前面的函数签名，以及重放的那些全局符号表操作，
+ * 所以把前面每个声明能被看到的部分串成环境（全局变量用它的 Token 和槽位，函数用签名），
+ * 环境和记录时逐项相同、Token 也没变的函数就可以直接重放；环境的摘要只用来快速排除不同的情况
+ * 全局变量和常量的初始化代码在 _start 里，每次都重新分析
+ *
+ * 偏移按 UTF-8 字节计算，和报错位置一致
+ * 返回的 Intermediate 在下一次 compile 或 edit 之前有效，之后其中的函数会被复用和改写
+ */
+public class IncrementalCompiler {
+    static final long SEED = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    /** 一个顶层声明占的 Token 范围 [start, end) */
+    private static final class Declaration {
+        int start;
+        int end;
+        /** 函数的分析记录，全局变量为 null */
+        final FunctionRecord record;
+        /** 到这个声明为止（包括它）的环境 */
+        final Env env;
+
+        Declaration(int start, int end, FunctionRecord record, Env env) {
+            this.start = start;
+            this.end = end;
+            this.record = record;
+            this.env = env;
+        }
+    }
+
+    /**
+     * 环境：前面每个声明能被后面看到的部分，从后往前串成链表，空环境是 null
+     * 重放的声明接着用上一次的节点，所以前后两次编译的环境大部分是同一串节点，比较时走到同一个节点就停
+     */
+    static final class Env {
+        final Env prev;
+        /** 这个声明能被看到的部分，见 key 和 FunctionRecord.signature */
+        final String key;
+        /** 从头到这里的摘要 */
+        final long digest;
+
+        Env(Env prev, String key) {
+            this.prev = prev;
+            this.key = key;
+            this.digest = hash(prev == null ? SEED : prev.digest, key);
+        }
+
+        /**
+         * 两个环境是否逐项相同，摘要不同时直接返回 false
+         */
+        static boolean same(Env a, Env b) {
+            while (a != b) {
+                if (a == null || b == null || a.digest != b.digest || !a.key.equals(b.key)) {
+                    return false;
+                }
+                a = a.prev;
+                b = b.prev;
+            }
+            return true;
+        }
+    }
+
+    private final CompilationContext context;
+    private byte[] text;
+    private final TokenStream tokens;
+    private ArrayList<Declaration> declarations = new ArrayList<>();
+    private int replayed = 0;
+
+    public IncrementalCompiler(String source) {
+        this(new CompilationContext(), source);
+    }
+
+    public IncrementalCompiler(CompilationContext context, String source) {
+        this.context = context;
+        this.text = source.getBytes(StandardCharsets.UTF_8);
+        this.tokens = TokenStream.lexAll(SourceBuffer.of(text));
+    }
+
+    /**
+     * 编译当前的源码，能复用的函数都直接重放
+     */
+    public Intermediate compile() throws CompileError {
+        return context.deep(this::compileOnce, true);
+    }
+
+    private Intermediate compileOnce() throws CompileError {
+        Intermediate intermediate = context.reset();
+        Analyser analyser = new Analyser(context, tokens);
+        analyser.recording = true;
+        Function list = new Function("_start");
+        ArrayList<Declaration> done = new ArrayList<>();
+        int next = 0;
+        Env env = null;
+        replayed = 0;
+        try {
+            while (!analyser.check(TokenType.EOF)) {
+                int at = analyser.cursor;
+                while (next < declarations.size() && declarations.get(next).start < at) {
+                    next++;
+                }
+                Declaration old = next < declarations.size() ? declarations.get(next) : null;
+                Declaration d;
+                if (old != null && old.start == at && old.record != null && Env.same(old.record.env, env)) {
+                    old.record.replay(intermediate, tokens, at);
+                    analyser.cursor = old.end;
+                    d = old;
+                    replayed++;
+                } else {
+                    analyser.analyseDeclarationDeep(list);
+                    FunctionRecord record = analyser.record;
+                    if (record != null) {
+                        record.env = env;
+                        d = new Declaration(at, analyser.cursor, record, new Env(env, record.signature()));
+                    } else {
+                        // 全局变量的槽位取决于前面的函数用到了哪些库函数，也要算进去
+                        String key = key(at, analyser.cursor) + "#" + intermediate.globalSymbol.size();
+                        d = new Declaration(at, analyser.cursor, null, new Env(env, key));
+                    }
+                }
+                env = d.env;
+                done.add(d);
+            }
+            analyser.finishProgram(list);
+        } catch (CompileError e) {
+            // 出错位置之后的旧记录留着，改好之后还能用
+            for (int i = next; i < declarations.size(); i++) {
+                if (done.isEmpty() || declarations.get(i).start >= done.get(done.size() - 1).end) {
+                    done.add(declarations.get(i));
+                }
+            }
+            declarations = done;
+            throw e.locate(tokens.lines());
+        } catch (StackOverflowError e) {
+            // 旧记录原样保留，加大栈之后重新编译
+            throw analyser.tooDeep();
+        }
+        declarations = done;
+        return intermediate;
+    }
+
+    /**
+     * 把源码的 [offset, offset + removed) 换成 inserted，然后重新编译
+     */
+    public Intermediate edit(int offset, int removed, String inserted) throws CompileError {
+        if (offset < 0 || removed < 0 || offset + removed > text.length) {
+            throw new IllegalArgumentException("edit out of range: " + offset + "+" + removed);
+        }
+        byte[] bytes = inserted.getBytes(StandardCharsets.UTF_8);
+        byte[] updated = new byte[text.length - removed + bytes.length];
+        System.arraycopy(text, 0, updated, 0, offset);
+        System.arraycopy(bytes, 0, updated, offset, bytes.length);
+        System.arraycopy(text, offset + removed, updated, offset + bytes.length, text.length - offset - removed);
+        text = updated;
+
+        // 从编辑位置之前最近的声明开头重新分析，声明总是跟在 } 或 ; 之后，前面的 Token 不受影响
+        int from = 0;
+        int lo = 0;
+        int hi = declarations.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int start = declarations.get(mid).start;
+            if (tokens.start(start) <= offset) {
+                from = start;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        int size = tokens.size();
+        int end = tokens.relex(SourceBuffer.of(text), from, offset, removed, bytes.length);
+        int shift = tokens.size() - size;
+
+        // 和重新分析的 Token 重叠的声明作废，后面的声明平移
+        ArrayList<Declaration> kept = new ArrayList<>();
+        for (Declaration d : declarations) {
+            if (d.end <= from) {
+                kept.add(d);
+            } else if (d.start >= end) {
+                d.start += shift;
+                d.end += shift;
+                kept.add(d);
+            }
+        }
+        declarations = kept;
+        return compile();
+    }
+
+    /**
+     * 上一次编译中直接重放的函数个数
+     */
+    public int replayed() {
+        return replayed;
+    }
+
+    public byte[] source() {
+        return text;
+    }
+
+    // 全局变量声明能被看到的部分：所有 Token 的类型和内容，内容带上长度，不会有两种拆法
+    private String key(int start, int end) throws CompileError {
+        StringBuilder key = new StringBuilder();
+        for (int i = start; i < end; i++) {
+            TokenType type = tokens.type(i);
+            key.append(type.ordinal());
+            switch (type) {
+                case Uint:
+                case Double:
+                case Char:
+                    key.append('=').append(tokens.longValue(i));
+                    break;
+                case IDENT:
+                case Str:
+                case Ty:
+                    String text = tokens.text(i);
+                    key.append(':').append(text.length()).append(':').append(text);
+                    break;
+                default:
+                    break;
+            }
+            key.append(' ');
+        }
+        return key.toString();
+    }
+
+    static long hash(long h, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * PRIME;
+        }
+        return hash(h, s.length());
+    }
+
+    static long hash(long h, long value) {
+        for (int i = 0; i < 8; i++) {
+            h = (h ^ (value & 0xff)) * PRIME;
+            value >>>= 8;
+        }
+        return h;
+    }
+}
@@ -1,12 +1,17 @@
 package miniplc0java.analyser;
 
+import miniplc0java.ir.IntLiteral;
+import miniplc0java.ir.Type;
+
 public class Symbol {
     String name;
-    String type;
+    Type type;
     boolean isConstant;
     boolean isInitialized;
     int stackOffset;
     int level;
+    /** 初始值是常量的 const 的值，读它时直接换成这个字面量；其余为 null */
+    IntLiteral value;
 
     public String getName() {
         return name;
@@ -16,7 +21,7 @@ public class Symbol {
         this.name = name;
     }
 
-    public String getType() {
+    public Type getType() {
         return type;
     }
 
@@ -28,7 +33,7 @@ public class Symbol {
         this.level = level;
     }
 
-    public void setType(String type) {
+    public void setType(Type type) {
         this.type = type;
     }
 
@@ -37,7 +42,7 @@ public class Symbol {
      * @param isInitialized
      * @param stackOffset
      */
-    public Symbol(String name, String type, boolean isConstant, boolean isInitialized, int stackOffset, int level) {
+    public Symbol(String name, Type type, boolean isConstant, boolean isInitialized, int stackOffset, int level) {
         this.name = name;
         this.type = type;
         this.isConstant = isConstant;
@@ -87,4 +92,12 @@ public class Symbol {
     public void setStackOffset(int stackOffset) {
         this.stackOffset = stackOffset;
     }
+
+    public IntLiteral getValue() {
+        return value;
+    }
+
+    public void setValue(IntLiteral value) {
+        this.value = value;
+    }
 }
@@ -0,0 +1,67 @@
+package miniplc0java.analyser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * 按作用域分层的符号表
+ * 第 0 层是全局变量，函数体是第 1 层，每进入一个语句块加一层；
+ * 每层一个 HashMap，进出语句块只增删最内层，查找时由内向外逐层查
+ */
+final class SymbolTable {
+    private final ArrayList<HashMap<String, Symbol>> scopes = new ArrayList<>();
+
+    SymbolTable() {
+        scopes.add(new HashMap<>());
+    }
+
+    /**
+     * 和 outer 共用第 0 层的全局变量，只用来读
+     */
+    SymbolTable(SymbolTable outer) {
+        scopes.add(outer.scopes.get(0));
+    }
+
+    /**
+     * 进入语句块
+     */
+    void push() {
+        scopes.add(new HashMap<>());
+    }
+
+    /**
+     * 离开语句块，丢掉最内层的所有符号
+     */
+    void pop() {
+        scopes.remove(scopes.size() - 1);
+    }
+
+    /**
+     * 栈不够、分析到一半放弃一个顶层声明时，丢掉它留下的语句块和全局符号
+     */
+    void rollback(Iterable<String> globals) {
+        while (scopes.size() > 1) {
+            pop();
+        }
+        for (String name : globals) {
+            scopes.get(0).remove(name);
+        }
+    }
+
+    void add(Symbol symbol) {
+        scopes.get(symbol.getLevel()).put(symbol.getName(), symbol);
+    }
+
+    /**
+     * 第 level 层到第 from 层里由内向外第一个名为 name 的符号
+     */
+    Symbol lookup(String name, int level, int from) {
+        for (int i = Math.min(level, scopes.size() - 1); i >= from; i--) {
+            Symbol symbol = scopes.get(i).get(name);
+            if (symbol != null) {
+                return symbol;
+            }
+        }
+        return null;
+    }
+}
@@ -6,7 +6,7 @@ public class AnalyzeError extends CompileError {
     private static final long serialVersionUID = 1L;
 
     ErrorCode code;
-    Pos pos;
+    long pos;
 
     @Override
     public ErrorCode getErr() {
@@ -15,6 +15,11 @@ public class AnalyzeError extends CompileError {
 
     @Override
     public Pos getPos() {
+        return resolve(pos);
+    }
+
+    @Override
+    public long getOffset() {
         return pos;
     }
 
@@ -23,13 +28,13 @@ public class AnalyzeError extends CompileError {
      * @param code
      * @param pos
      */
-    public AnalyzeError(ErrorCode code, Pos pos) {
+    public AnalyzeError(ErrorCode code, long pos) {
         this.code = code;
         this.pos = pos;
     }
 
     @Override
     public String toString() {
-        return new StringBuilder().append("Analyze Error: ").append(code).append(", at: ").append(pos).toString();
+        return new StringBuilder().append("Analyze Error: ").append(code).append(", at: ").append(getPos()).toString();
     }
 }
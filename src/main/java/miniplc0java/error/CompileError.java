@@ -1,12 +1,41 @@
 package miniplc0java.error;
 
+import miniplc0java.util.LineIndex;
 import miniplc0java.util.Pos;
 
 public abstract class CompileError extends Exception {
 
     private static final long serialVersionUID = 1L;
 
+    // 用来把出错偏移还原成行列号，由抛出或者捕获错误的一方补上
+    private transient LineIndex lines;
+
     public abstract ErrorCode getErr();
 
     public abstract Pos getPos();
+
+    /**
+     * 出错位置的源码偏移
+     */
+    public abstract long getOffset();
+
+    /**
+     * 绑定源码的行首表，已经绑定过的不会被覆盖
+     */
+    public CompileError locate(LineIndex lines) {
+        if (this.lines == null) {
+            this.lines = lines;
+        }
+        return this;
+    }
+
+    /**
+     * 还原出错位置，没有行首表时只能把偏移当成第 0 行的列号
+     */
+    protected Pos resolve(long offset) {
+        if (lines == null) {
+            return new Pos(0, (int) offset);
+        }
+        return lines.resolve(offset);
+    }
 }
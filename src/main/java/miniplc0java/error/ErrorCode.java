@@ -4,5 +4,7 @@ public enum ErrorCode {
     NoError, // Should be only used internally.
     StreamError, EOF, InvalidInput, InvalidIdentifier, IntegerOverflow, // int32_t overflow.
     NoBegin, NoEnd, NeedIdentifier, ConstantNeedValue, NoSemicolon, InvalidVariableDeclaration, IncompleteExpression,
-    NotDeclared, AssignToConstant, DuplicateDeclaration, NotInitialized, InvalidAssignment, InvalidPrint, ExpectedToken
+    NotDeclared, AssignToConstant, DuplicateDeclaration, NotInitialized, InvalidAssignment, InvalidPrint, ExpectedToken,
+    NestingTooDeep, // 嵌套太深，加大栈之后仍然不够
+    TokenTooLong // 流式读取时一个标识符或数字比窗口还长
 }
@@ -20,6 +20,11 @@ public class ExpectedTokenError extends CompileError {
 
     @Override
     public Pos getPos() {
+        return resolve(token.getStartPos());
+    }
+
+    @Override
+    public long getOffset() {
         return token.getStartPos();
     }
 
@@ -49,6 +54,6 @@ public class ExpectedTokenError extends CompileError {
     @Override
     public String toString() {
         return new StringBuilder().append("Analyse error. Expected ").append(expecTokenType).append(" at ")
-                .append(token.getStartPos()).append("got: ").append(token.toStringAlt()).toString();
+                .append(getPos()).append("got: ").append(token.toStringAlt(getPos())).toString();
     }
 }
@@ -7,30 +7,28 @@ public class TokenizeError extends CompileError {
     private static final long serialVersionUID = 1L;
 
     private ErrorCode err;
-    private Pos pos;
+    private long pos;
 
-    public TokenizeError(ErrorCode err, Pos pos) {
+    public TokenizeError(ErrorCode err, long pos) {
         super();
         this.err = err;
         this.pos = pos;
     }
 
-    public TokenizeError(ErrorCode err, Integer row, Integer col) {
-        super();
-        this.err = err;
-        this.pos = new Pos(row, col);
-    }
-
     public ErrorCode getErr() {
         return err;
     }
 
     public Pos getPos() {
+        return resolve(pos);
+    }
+
+    public long getOffset() {
         return pos;
     }
 
     @Override
     public String toString() {
-        return new StringBuilder().append("Tokenize Error: ").append(err).append(", at: ").append(pos).toString();
+        return new StringBuilder().append("Tokenize Error: ").append(err).append(", at: ").append(getPos()).toString();
     }
 }
@@ -1,7 +1,8 @@
 package miniplc0java.instruction;
 import miniplc0java.error.AnalyzeError;
 import miniplc0java.error.ErrorCode;
-import miniplc0java.util.Pos;
+import miniplc0java.ir.Block;
+import miniplc0java.ir.Type;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -17,13 +18,17 @@ public class Function {
         standardFunction.put("putln","void");
     }
     public String name;
-    public String type;
+    public Type type;
     public int returnSlots = 0;
     public boolean isReturned;
     public int paramsSum = 0;
     public int localSum = 0;
     public ArrayList<FunctionParams> paramsList = new ArrayList<>();
     public ArrayList<Instruction> instructionsList = new ArrayList<>();
+    // 分析得到的中间表示，instructionsList 由它生成
+    public Block body = new Block();
+    // 所在的中间代码，由 Intermediate.addFunction 设置
+    Intermediate program;
 
     public static void setStandardFunction(HashMap<String, String> standardFunction) {
         Function.standardFunction = standardFunction;
@@ -33,7 +38,7 @@ public class Function {
         this.name = name;
     }
 
-    public void setType(String type) {
+    public void setType(Type type) {
 
         this.type = type;
     }
@@ -62,7 +67,7 @@ public class Function {
         return this.localSum-1;
     }
 
-    public void addParam(String name, String type, boolean isConstant, Pos curPos) throws AnalyzeError {
+    public void addParam(String name, Type type, boolean isConstant, long curPos) throws AnalyzeError {
         for (int i=0; i<paramsList.size(); i++) {
             if (paramsList.get(i).getName().equals(name)) {
                 throw new AnalyzeError(ErrorCode.DuplicateDeclaration, curPos);
@@ -72,7 +77,7 @@ public class Function {
         paramsSum++;
     }
 
-    public void InParamsList(String name, Pos curPos) throws AnalyzeError {
+    public void InParamsList(String name, long curPos) throws AnalyzeError {
         for (int i=0; i<paramsList.size(); i++) {
             if (paramsList.get(i).getName().equals(name)) {
                 throw new AnalyzeError(ErrorCode.DuplicateDeclaration, curPos);
@@ -80,19 +85,19 @@ public class Function {
         }
     }
 
-    public void setIsReturned(String type, Pos curPos) throws AnalyzeError{
-        if(!type.equals(this.type)){
+    public void setIsReturned(Type type, long curPos) throws AnalyzeError{
+        if(type != this.type){
             throw new AnalyzeError(ErrorCode.ExpectedToken, curPos);
         }
         this.isReturned = true;
     }
 
-    public void checkParams(ArrayList<String> list, Pos curPos) throws AnalyzeError {
+    public void checkParams(ArrayList<Type> list, long curPos) throws AnalyzeError {
         if (paramsSum!=list.size()) {
             throw new AnalyzeError(ErrorCode.ExpectedToken, curPos);
         }
         for (int i=0; i<list.size(); i++) {
-            if (!list.get(i).equals(paramsList.get(i).getType())) {
+            if (list.get(i) != paramsList.get(i).getType()) {
                 throw new AnalyzeError(ErrorCode.ExpectedToken, curPos);
             }
         }
@@ -106,7 +111,7 @@ public class Function {
         return name;
     }
 
-    public String getType() {
+    public Type getType() {
         return type;
     }
 
@@ -130,9 +135,8 @@ public class Function {
         return isReturned;
     }
 
-    public void setReturn(String ty){
-        if(!ty.equals("void"))
-            this.returnSlots = 1;
+    public void setReturn(Type ty){
+        this.returnSlots = ty.slots();
         this.type = ty;
     }
 
@@ -140,8 +144,8 @@ public class Function {
         return paramsSum;
     }
 
-    public void returnFn(String ty, Pos curPos) throws AnalyzeError{
-        if(!ty.equals(this.type)){
+    public void returnFn(Type ty, long curPos) throws AnalyzeError{
+        if(ty != this.type){
             throw new AnalyzeError(ErrorCode.ExpectedToken, curPos);
         }
         this.isReturned = true;
@@ -159,6 +163,66 @@ public class Function {
         instructionsList.add(instruction);
     }
 
+    /**
+     * 在当前位置放下标号
+     */
+    public void place(Label label) {
+        instructionsList.add(label);
+    }
+
+    /**
+     * 添加一条跳到 label 的 BR、BR_TRUE 或 BR_FALSE，label 可以还没放下，偏移由 resolve 计算
+     */
+    public Instruction jump(Operation opt, Label label) {
+        Instruction instruction = new Instruction(opt, 0, 4);
+        instruction.target = label;
+        instructionsList.add(instruction);
+        return instruction;
+    }
+
+    /**
+     * 重定位：去掉所有标号，把跳转的目标换成相对偏移
+     * 目标处是一条无条件 BR 时直接跳到它最终的目标（跳转串接），BR 围成的环停在环上
+     */
+    public void resolve() {
+        ArrayList<Instruction> code = new ArrayList<>(instructionsList.size());
+        for (Instruction i : instructionsList) {
+            if (i instanceof Label) {
+                ((Label) i).at = code.size();
+            } else {
+                code.add(i);
+            }
+        }
+        int[] targets = new int[code.size()];
+        for (int i = 0; i < code.size(); i++) {
+            Label label = code.get(i).target;
+            if (label == null) {
+                continue;
+            }
+            if (label.at < 0) {
+                throw new IllegalStateException("label not placed in " + name);
+            }
+            int at = label.at;
+            for (int hops = 0; hops < code.size() && at < code.size(); hops++) {
+                Instruction next = code.get(at);
+                if (next.getOpt() != Operation.BR || next.target == null) {
+                    break;
+                }
+                at = next.target.at;
+            }
+            targets[i] = at;
+        }
+        for (int i = 0; i < code.size(); i++) {
+            Instruction jump = code.get(i);
+            if (jump.target != null) {
+                jump.setX(targets[i] - i - 1);
+                jump.target = null;
+            }
+        }
+        instructionsList.clear();
+        instructionsList.addAll(code);
+    }
+
     public int getOffset(String name) {
         for (int i=0; i<paramsList.size(); i++) {
             if (paramsList.get(i).getName().equals(name)) {
@@ -169,7 +233,7 @@ public class Function {
     }
 
     public int getFnNumber(){
-        return Intermediate.getIntermediate().getFnNumber(this.name);
+        return program.getFnNumber(this.name);
     }
 
     @Override
@@ -177,7 +241,7 @@ public class Function {
         StringBuilder s = new StringBuilder();
 //        s.append("fn [").append(Intermediate.getIntermediate().getFnNumber(this.name)).append("] ").append(localSum).append(" ").append(paramsSum).append(" -> ").append(returnSlots).append(" {\n");
         s.append("fn [");
-        s.append(Intermediate.getIntermediate().getFnNumber(this.name));
+        s.append(getFnNumber());
         s.append("] ");
         s.append(localSum);
         s.append(" ");
@@ -1,11 +1,13 @@
 package miniplc0java.instruction;
 
+import miniplc0java.ir.Type;
+
 public class FunctionParams {
     private String name;
-    private String type;
+    private Type type;
     private boolean isConstant;
 
-    public FunctionParams(String name, String type, boolean isConstant) {
+    public FunctionParams(String name, Type type, boolean isConstant) {
         this.name = name;
         this.type = type;
         this.isConstant = isConstant;
@@ -19,11 +21,11 @@ public class FunctionParams {
         this.name = name;
     }
 
-    public String getType() {
+    public Type getType() {
         return type;
     }
 
-    public void setType(String type) {
+    public void setType(Type type) {
         this.type = type;
     }
 
@@ -7,6 +7,8 @@ public class Instruction {
     private Operation opt;
     long x;
     int y;
+    // 跳转的目标，Function.resolve 把它换成偏移之后为 null
+    Label target;
     public static HashMap<String, Number> instruction = new HashMap<>();
 
     static{
@@ -130,6 +132,14 @@ public class Instruction {
         this.x = x;
     }
 
+    public Label getTarget() {
+        return target;
+    }
+
+    public void setTarget(Label target) {
+        this.target = target;
+    }
+
     public int getY() {
         return y;
     }
@@ -208,6 +218,12 @@ public class Instruction {
             case DIV_I:
             case CMP_I:
             case NEG_I:
+            case ADD_F:
+            case SUB_F:
+            case MUL_F:
+            case DIV_F:
+            case CMP_F:
+            case NEG_F:
             case SET_GT:
             case SET_LT:
             case NOT:
@@ -218,6 +234,7 @@ public class Instruction {
             case PRINT_S:
             case PRINTLN:
             case RET:
+            case LABEL:
                 return String.format("%s",this.opt);
 //            case ARGA:
 //                return String.format("%s(%s)",this.opt,this.x);
@@ -2,9 +2,10 @@ package miniplc0java.instruction;
 
 import miniplc0java.error.AnalyzeError;
 import miniplc0java.error.ErrorCode;
-import miniplc0java.util.Pos;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 public class Intermediate {
     public int magic = 0x72303b3e;
@@ -14,43 +15,42 @@ public class Intermediate {
     public ArrayList<Function> fnList = new ArrayList<>();
 
 
-    // 函数名和全局变量
+    // 全局符号表：全局变量、函数名和库函数名，下标就是槽位，按第一次出现的顺序分配，之后不再变化
     public ArrayList<String> globalSymbol = new ArrayList<>();
+    private HashMap<String, Integer> slots = new HashMap<>();
+    // 槽位上的全局变量，函数名和库函数名不在这里
+    private HashMap<String, GlobalSymbol> variables = new HashMap<>();
+    // 函数和它在 fnList 中的位置（从 1 开始）
+    private HashMap<String, Function> functions = new HashMap<>();
+    private HashMap<String, Integer> fnAddresses = new HashMap<>();
+
+    // 字符串常量池，放在全局符号表之后，相同的字面量只占一项
+    public ArrayList<String> strings = new ArrayList<>();
+    // 每个字面量的 UTF-8 编码，写文件时直接使用
+    public ArrayList<byte[]> stringBytes = new ArrayList<>();
+    private HashMap<String, Integer> stringSlots = new HashMap<>();
+    // 操作数是常量池下标的指令，全局符号表定下来之后由 resolveStrings 换成全局变量下标
+    private ArrayList<Instruction> stringRefs = new ArrayList<>();
 
     public int getGlobalCounts(){
-        return this.globalSymbol.size();
+        return this.globalSymbol.size() + this.strings.size();
     }
 
     public int getGlobalVarNum(){
         return this.gdList.size();
     }
 
-    private int globalVarNum = 0;
-
-    private static Intermediate intermediate = new Intermediate();
-
-    public static Intermediate getIntermediate(){
-        return intermediate;
-    }
-
-    public int getNextGlobalVarOffset(){
-        return gdList.size()-1;
+    public boolean inGlobalVarList(String name){
+        return variables.containsKey(name);
     }
 
     /**
-     * 添加一个全局变量到表中
-     * @param g
+     * 槽位上的全局变量
+     * @param name 符号名
+     * @return 不是全局变量时返回 null
      */
-    public void addGlobalVar(GlobalSymbol g){
-        gdList.add(g);
-    }
-    public boolean inGlobalVarList(String name){
-        for(GlobalSymbol g: gdList){
-            if(g.getName().equals(name)){
-                return true;
-            }
-        }
-        return false;
+    public GlobalSymbol getGlobalVar(String name){
+        return variables.get(name);
     }
 
     /**
@@ -59,8 +59,8 @@ public class Intermediate {
      * @param curPos 位置
      * @throws AnalyzeError 变量重复
      */
-    public void notInGlobalSymbol(String name, Pos curPos) throws AnalyzeError {
-        if(globalSymbol.indexOf(name) >= 0){
+    public void notInGlobalSymbol(String name, long curPos) throws AnalyzeError {
+        if(slots.containsKey(name)){
             throw new AnalyzeError(ErrorCode.DuplicateDeclaration, curPos);
         }
     }
@@ -69,27 +69,33 @@ public class Intermediate {
      * 添加一个符号到全局符号表，非全局变量
      * @param name 变量名
      * @param curPos 位置
+     * @return 槽位
      * @throws AnalyzeError 变量重复
      */
-    public void addGlobalSymbol(String name, Pos curPos) throws AnalyzeError{
+    public int addGlobalSymbol(String name, long curPos) throws AnalyzeError{
         notInGlobalSymbol(name, curPos);
-        globalSymbol.add(name);
+        return newSlot(name);
     }
 
     /**
-     * 向全局符号表的倒数第二个位置插入一条符号
-     * @param name
-     * @param curPos
-     * @throws AnalyzeError
+     * 添加一个全局变量
+     * @param g 全局变量
+     * @param curPos 位置
+     * @return 槽位，GLOBA 的操作数
+     * @throws AnalyzeError 变量重复
      */
-    public void addGlobalSymbolToLastPos(String name, Pos curPos) throws AnalyzeError{
-        notInGlobalSymbol(name, curPos);
-        globalSymbol.add(globalSymbol.size()-2, name);
+    public int addGlobalVar(GlobalSymbol g, long curPos) throws AnalyzeError{
+        notInGlobalSymbol(g.getName(), curPos);
+        gdList.add(g);
+        variables.put(g.getName(), g);
+        return newSlot(g.getName());
     }
-    // 添加一个全局变量进去
-    public void addGlobalVar(String name, Pos curPos) throws AnalyzeError{
-        notInGlobalSymbol(name, curPos);
-        globalSymbol.add(globalVarNum++, name);
+
+    private int newSlot(String name){
+        int slot = globalSymbol.size();
+        globalSymbol.add(name);
+        slots.put(name, slot);
+        return slot;
     }
 
     /**
@@ -97,35 +103,22 @@ public class Intermediate {
      * @param f 函数块
      */
     public void addFunction(Function f){
+        f.program = this;
         fnList.add(f);
+        if(!functions.containsKey(f.getName())){
+            functions.put(f.getName(), f);
+            fnAddresses.put(f.getName(), fnList.size());
+        }
     }
 
-
-
     /**
-     * 从函数列表中去掉某个函数
-     * @param fnName 函数名
-     * @return 成功与否
+     * 库函数在全局符号表中的槽位，第一次调用时分配，不会插入到fn列表中
+     * @param libFn 库函数
+     * @return 槽位，callname 的操作数
      */
-//    public boolean removeFunction(String fnName){
-//        return fnList.removeIf(f -> f.getFnName().equals(fnName));
-//    }
-
-    /**
-     * 在全局符号表中插入一条库函数的记录，不会插入到fn列表中
-     * @param fnName 函数
-     * @return 插入的偏移量，callname 返回值即可
-     */
-    public int insertLibFunctionBefore(String fnName, String libFn){
-        int i=0;
-        for(String f: globalSymbol){
-            if(f.equals(fnName)){
-                break;
-            }
-            i++;
-        }
-        globalSymbol.add(i, libFn);
-        return i;
+    public int addLibFunction(String libFn){
+        Integer slot = slots.get(libFn);
+        return slot != null ? slot : newSlot(libFn);
     }
 
     /**
@@ -134,25 +127,11 @@ public class Intermediate {
      * @return 偏移量
      */
     public int getFnAddress(String fnName) {
-        int i=1;
-        for(Function f:fnList){
-            if(f.getName().equals(fnName)){
-                return i;
-            }
-            i++;
-        }
-        return -1;
+        return fnAddresses.getOrDefault(fnName, -1);
     }
 
     public int getFnNumber(String fnName) {
-        int i=0;
-        for(String s: globalSymbol){
-            if(s.equals(fnName)){
-                return i;
-            }
-            i++;
-        }
-        return -1;
+        return getSymbolAddress(fnName);
     }
 
     /**
@@ -162,13 +141,12 @@ public class Intermediate {
      * @return
      * @throws AnalyzeError
      */
-    public Function getFn(String fnName, Pos curPos) throws AnalyzeError{
-        for(Function f:fnList){
-            if(f.getName().equals(fnName)){
-                return f;
-            }
+    public Function getFn(String fnName, long curPos) throws AnalyzeError{
+        Function f = functions.get(fnName);
+        if(f == null){
+            throw new AnalyzeError(ErrorCode.ExpectedToken, curPos);
         }
-        throw new AnalyzeError(ErrorCode.ExpectedToken, curPos);
+        return f;
     }
 
     /**
@@ -177,26 +155,104 @@ public class Intermediate {
      * @return 位置
      */
     public int getSymbolAddress(String name){
-        return globalSymbol.indexOf(name);
+        return slots.getOrDefault(name, -1);
     }
 
-    @Override
-    public String toString(){
-        StringBuilder sb = new StringBuilder();
+    /**
+     * 字符串字面量入常量池，已有相同内容时直接复用
+     * @param literal 字面量
+     * @return 常量池下标
+     */
+    public int addString(String literal){
+        Integer slot = stringSlots.get(literal);
+        if(slot == null){
+            slot = strings.size();
+            strings.add(literal);
+            stringBytes.add(literal.getBytes(StandardCharsets.UTF_8));
+            stringSlots.put(literal, slot);
+        }
+        return slot;
+    }
 
-        for(GlobalSymbol g:gdList){
-            sb.append(g.getName()).append('\n');
+    /**
+     * 登记一条操作数是常量池下标的指令，并行分析函数体时会同时调用
+     * @param instruction 指令
+     */
+    public synchronized void addStringRef(Instruction instruction){
+        stringRefs.add(instruction);
+    }
+
+    /**
+     * 常量池排在全局符号表之后，把登记过的指令的操作数换成全局变量下标
+     */
+    public void resolveStrings(){
+        int base = globalSymbol.size();
+        for(Instruction i: stringRefs){
+            i.setX(base + i.getX());
         }
+        stringRefs.clear();
+    }
 
-        /*
-        for(FnInstruct f : fnList){
-            sb.append(f.getFnName()).append('\n');
-        }*/
+    /**
+     * 当前各个表的大小，分析一个声明之前记下，栈不够时用 rollback 撤销这个声明的全部影响
+     */
+    public static final class Mark {
+        private final int symbols;
+        private final int variables;
+        private final int functions;
+        private final int strings;
+        private final int stringRefs;
+
+        private Mark(Intermediate m) {
+            this.symbols = m.globalSymbol.size();
+            this.variables = m.gdList.size();
+            this.functions = m.fnList.size();
+            this.strings = m.strings.size();
+            this.stringRefs = m.stringRefs.size();
+        }
+    }
+
+    public Mark mark(){
+        return new Mark(this);
+    }
 
+    /**
+     * 撤销 mark 之后加入的符号、全局变量、函数和字符串
+     * @return 撤销的全局符号，分析器据此清理自己的符号表
+     */
+    public ArrayList<String> rollback(Mark mark){
+        ArrayList<String> removed = new ArrayList<>(globalSymbol.subList(mark.symbols, globalSymbol.size()));
+        for(String name: removed){
+            slots.remove(name);
+            variables.remove(name);
+        }
+        globalSymbol.subList(mark.symbols, globalSymbol.size()).clear();
+        gdList.subList(mark.variables, gdList.size()).clear();
+        for(Function f: fnList.subList(mark.functions, fnList.size())){
+            if(fnAddresses.getOrDefault(f.getName(), 0) > mark.functions){
+                functions.remove(f.getName());
+                fnAddresses.remove(f.getName());
+            }
+        }
+        fnList.subList(mark.functions, fnList.size()).clear();
+        for(String s: strings.subList(mark.strings, strings.size())){
+            stringSlots.remove(s);
+        }
+        strings.subList(mark.strings, strings.size()).clear();
+        stringBytes.subList(mark.strings, stringBytes.size()).clear();
+        stringRefs.subList(mark.stringRefs, stringRefs.size()).clear();
+        return removed;
+    }
 
+    @Override
+    public String toString(){
+        StringBuilder sb = new StringBuilder();
 
-        for(int i=this.getGlobalVarNum(); i<this.globalSymbol.size(); i++){
-            sb.append(this.globalSymbol.get(i)).append('\n');
+        for(String s: globalSymbol){
+            sb.append(s).append('\n');
+        }
+        for(String s: strings){
+            sb.append(s).append('\n');
         }
 /*
         for(String s:globalSymbol){
@@ -0,0 +1,25 @@
+package miniplc0java.instruction;
+
+/**
+ * 跳转目标，用 Function.place 放进指令序列，用 Function.jump 跳过去
+ * 它本身不是指令，Function.resolve 会把它去掉，跳到它就是跳到它后面的第一条指令；
+ * 所以在 resolve 之前插入、删除指令都不会弄错跳转
+ */
+public final class Label extends Instruction {
+    // resolve 时去掉标号之后的位置，还没放下时为 -1
+    int at = -1;
+
+    public Label() {
+        super(Operation.LABEL);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+}
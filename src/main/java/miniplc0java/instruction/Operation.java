@@ -42,4 +42,6 @@ public enum Operation {
     PRINT_S,
     PRINTLN,
     PANIC,
+    // 标号，只在 Function.resolve 之前出现在指令序列里，见 Label
+    LABEL,
 }
@@ -0,0 +1,244 @@
+package miniplc0java.instruction;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 窥孔优化，在 Function.resolve 之前对带标号的指令序列做局部改写
+ * 每条规则在某个位置匹配一小段指令，改写之后至少少一条指令，所以一定会停下；
+ * 跳转还指向标号，删掉指令不用改偏移，改完再由 resolve 串接跳转、计算偏移
+ *
+ * 统计每条规则删掉的指令数，并行分析函数体时会同时调用 optimize
+ */
+public final class Peephole {
+    /**
+     * 规则表，按顺序在每个位置尝试
+     */
+    public enum Rule {
+        /** 无条件 BR 和 RET 之后、下一个标号之前的指令执行不到 */
+        UNREACHABLE {
+            @Override
+            boolean apply(ArrayList<Instruction> code, int i) {
+                Operation opt = code.get(i).getOpt();
+                if (opt != Operation.RET && !(opt == Operation.BR && code.get(i).target != null)) {
+                    return false;
+                }
+                int end = i + 1;
+                while (end < code.size() && !(code.get(end) instanceof Label)) {
+                    end++;
+                }
+                if (end == i + 1) {
+                    return false;
+                }
+                code.subList(i + 1, end).clear();
+                return true;
+            }
+        },
+        /** 跳到紧跟着的标号的 BR，比如 while 开头的 BR(0) */
+        JUMP_TO_NEXT {
+            @Override
+            boolean apply(ArrayList<Instruction> code, int i) {
+                Instruction jump = code.get(i);
+                if (jump.getOpt() != Operation.BR || !follows(code, i, jump.target)) {
+                    return false;
+                }
+                code.remove(i);
+                return true;
+            }
+        },
+        /** BR_TRUE(body) BR(skip) body: 换成 BR_FALSE(skip)，BR_FALSE 同理 */
+        INVERT_BRANCH {
+            @Override
+            boolean apply(ArrayList<Instruction> code, int i) {
+                Instruction branch = code.get(i);
+                if (!conditional(branch) || i + 1 >= code.size()) {
+                    return false;
+                }
+                Instruction jump = code.get(i + 1);
+                if (jump.getOpt() != Operation.BR || jump.target == null || !follows(code, i + 1, branch.target)) {
+                    return false;
+                }
+                branch.setOpt(invert(branch.getOpt()));
+                branch.target = jump.target;
+                code.remove(i + 1);
+                return true;
+            }
+        },
+        /** NOT 之后的条件跳转，去掉 NOT 换成相反的跳转，比如比较运算末尾的 NOT */
+        NOT_BRANCH {
+            @Override
+            boolean apply(ArrayList<Instruction> code, int i) {
+                if (code.get(i).getOpt() != Operation.NOT || i + 1 >= code.size() || !conditional(code.get(i + 1))) {
+                    return false;
+                }
+                Instruction branch = code.get(i + 1);
+                branch.setOpt(invert(branch.getOpt()));
+                code.remove(i);
+                return true;
+            }
+        },
+        /** 调用没有返回值的函数前的 STACKALLOC(0) */
+        STACKALLOC_ZERO {
+            @Override
+            boolean apply(ArrayList<Instruction> code, int i) {
+                Instruction alloc = code.get(i);
+                if (alloc.getOpt() != Operation.STACKALLOC || alloc.getX() != 0) {
+                    return false;
+                }
+                code.remove(i);
+                return true;
+            }
+        };
+
+        /**
+         * 在第 i 条指令处尝试改写
+         * @return 改写了返回 true，这时至少删掉了一条指令
+         */
+        abstract boolean apply(ArrayList<Instruction> code, int i);
+
+        // 第 i 条指令之后紧跟着的一串标号里有 label，也就是跳到 label 就是跳到第 i 条的下一条
+        static boolean follows(ArrayList<Instruction> code, int i, Label label) {
+            if (label == null) {
+                return false;
+            }
+            for (int j = i + 1; j < code.size() && code.get(j) instanceof Label; j++) {
+                if (code.get(j) == label) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        static boolean conditional(Instruction instruction) {
+            Operation opt = instruction.getOpt();
+            return (opt == Operation.BR_TRUE || opt == Operation.BR_FALSE) && instruction.target != null;
+        }
+
+        static Operation invert(Operation opt) {
+            return opt == Operation.BR_TRUE ? Operation.BR_FALSE : Operation.BR_TRUE;
+        }
+    }
+
+    private final EnumSet<Rule> rules;
+    // 每条规则删掉的指令数，以及优化过的指令总数
+    private final AtomicLongArray removed = new AtomicLongArray(Rule.values().length);
+    private final AtomicLong seen = new AtomicLong();
+
+    /**
+     * 打开所有规则
+     */
+    public Peephole() {
+        this(EnumSet.allOf(Rule.class));
+    }
+
+    public Peephole(EnumSet<Rule> rules) {
+        this.rules = EnumSet.copyOf(rules);
+    }
+
+    /**
+     * 按命令行的写法选规则：all、none，或者逗号分隔的规则名（不分大小写）
+     */
+    public static Peephole parse(String spec) {
+        EnumSet<Rule> rules = EnumSet.noneOf(Rule.class);
+        for (String name : spec.split(",")) {
+            name = name.trim();
+            if (name.equalsIgnoreCase("all")) {
+                rules.addAll(EnumSet.allOf(Rule.class));
+            } else if (!name.isEmpty() && !name.equalsIgnoreCase("none")) {
+                rules.add(Rule.valueOf(name.toUpperCase()));
+            }
+        }
+        return new Peephole(rules);
+    }
+
+    public EnumSet<Rule> getRules() {
+        return EnumSet.copyOf(rules);
+    }
+
+    /**
+     * 优化 function 的指令，必须在 resolve 之前
+     */
+    public void optimize(Function function) {
+        ArrayList<Instruction> code = function.instructionsList;
+        seen.addAndGet(count(code));
+        if (rules.isEmpty()) {
+            return;
+        }
+        int i = 0;
+        while (i < code.size()) {
+            boolean changed = false;
+            for (Rule rule : rules) {
+                int size = code.size();
+                if (rule.apply(code, i)) {
+                    removed.addAndGet(rule.ordinal(), size - code.size());
+                    changed = true;
+                    break;
+                }
+            }
+            // 改写之后前面的指令可能和这里组成新的模式，往回退一点重新看
+            i = changed ? Math.max(0, i - 2) : i + 1;
+        }
+    }
+
+    // 不算标号的指令数
+    private static int count(ArrayList<Instruction> code) {
+        int n = 0;
+        for (Instruction instruction : code) {
+            if (!(instruction instanceof Label)) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * rule 删掉的指令数
+     */
+    public long removed(Rule rule) {
+        return removed.get(rule.ordinal());
+    }
+
+    /**
+     * 所有规则删掉的指令数
+     */
+    public long removed() {
+        long sum = 0;
+        for (int i = 0; i < removed.length(); i++) {
+            sum += removed.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * 优化之前的指令总数
+     */
+    public long seen() {
+        return seen.get();
+    }
+
+    /**
+     * 清空统计，准备编译下一个程序
+     */
+    public void reset() {
+        for (int i = 0; i < removed.length(); i++) {
+            removed.set(i, 0);
+        }
+        seen.set(0);
+    }
+
+    /**
+     * 统计表，每条规则一行，最后是总数
+     */
+    public String report() {
+        StringBuilder s = new StringBuilder();
+        for (Rule rule : Rule.values()) {
+            s.append(String.format("%-16s %8d%s%n", rule, removed(rule), rules.contains(rule) ? "" : "  (off)"));
+        }
+        long total = removed();
+        s.append(String.format("%-16s %8d of %d instructions (%.1f%%)%n", "total", total, seen(),
+                seen() == 0 ? 0.0 : 100.0 * total / seen()));
+        return s.toString();
+    }
+}
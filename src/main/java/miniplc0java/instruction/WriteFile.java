@@ -10,27 +10,35 @@ public class WriteFile {
             content.write(getByteValue(midCode.version, 4));
             content.write(getByteValue(midCode.getGlobalCounts(), 4));
 
-            for(int i=0; i<midCode.gdList.size(); i++){
-                if(midCode.gdList.get(i).isConstant()){
+            for(String name: midCode.globalSymbol){
+                GlobalSymbol g = midCode.getGlobalVar(name);
+                if(g == null){
                     content.write(getByteValue(1, 1));
+                    content.write(getByteValue(name.length(), 4));
+                    content.write(getByteValue(name));
                 }
                 else{
-                    content.write(getByteValue(0, 1));
+                    if(g.isConstant()){
+                        content.write(getByteValue(1, 1));
+                    }
+                    else{
+                        content.write(getByteValue(0, 1));
+                    }
+                    content.write(getByteValue(8, 4));
+                    content.write(getByteValue(0, 8));
                 }
-                content.write(getByteValue(8, 4));
-                content.write(getByteValue(0, 8));
             }
-            for(int i=midCode.getGlobalVarNum(); i<midCode.globalSymbol.size(); i++){
+            for(byte[] s: midCode.stringBytes){
                 content.write(getByteValue(1, 1));
-                content.write(getByteValue(midCode.globalSymbol.get(i).length(), 4));
-                content.write(getByteValue(midCode.globalSymbol.get(i)));
+                content.write(getByteValue(s.length, 4));
+                content.write(s);
             }
 
             content.write(getByteValue(midCode.fnList.size(), 4));
 
             for(Function f: midCode.fnList){
                 if(f.getName().equals("_start")) {
-                    content.write(getByteValue(f.getFnNumber(), 4));
+                    content.write(getByteValue(midCode.getFnNumber(f.getName()), 4));
                     content.write(getByteValue(f.getReturnSlots(), 4));
                     content.write(getByteValue(f.getParamsSum(), 4));
                     content.write(getByteValue(f.getLocalSum(), 4));
@@ -46,7 +54,7 @@ public class WriteFile {
             }
             for(Function f: midCode.fnList){
                 if(!f.getName().equals("_start")) {
-                    content.write(getByteValue(f.getFnNumber(), 4));
+                    content.write(getByteValue(midCode.getFnNumber(f.getName()), 4));
                     content.write(getByteValue(f.getReturnSlots(), 4));
                     content.write(getByteValue(f.getParamsSum(), 4));
                     content.write(getByteValue(f.getLocalSum(), 4));
@@ -0,0 +1,20 @@
+package miniplc0java.ir;
+
+/**
+ * 赋值表达式，类型为 VOID
+ */
+public final class Assign extends Expr {
+    public final Variable target;
+    public final Expr value;
+
+    public Assign(Variable target, Expr value) {
+        super(Type.VOID);
+        this.target = target;
+        this.value = value;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+        return visitor.visitAssign(this);
+    }
+}
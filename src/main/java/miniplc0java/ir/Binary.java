@@ -0,0 +1,26 @@
+package miniplc0java.ir;
+
+/**
+ * 二元运算，两边类型相同，结果的类型和左边相同（比较运算也是）
+ */
+public final class Binary extends Expr {
+    public enum Op {
+        ADD, SUB, MUL, DIV, EQ, NEQ, LT, GT, LE, GE
+    }
+
+    public final Op op;
+    public final Expr left;
+    public final Expr right;
+
+    public Binary(Op op, Expr left, Expr right) {
+        super(left.type);
+        this.op = op;
+        this.left = left;
+        this.right = right;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+        return visitor.visitBinary(this);
+    }
+}
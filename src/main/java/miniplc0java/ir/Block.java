@@ -0,0 +1,19 @@
+package miniplc0java.ir;
+
+import java.util.ArrayList;
+
+/**
+ * 语句块，也是函数体
+ */
+public final class Block extends Stmt {
+    public final ArrayList<Stmt> statements = new ArrayList<>();
+
+    public void add(Stmt statement) {
+        statements.add(statement);
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+        return visitor.visitBlock(this);
+    }
+}
@@ -0,0 +1,27 @@
+package miniplc0java.ir;
+
+import miniplc0java.instruction.Function;
+
+import java.util.List;
+
+/**
+ * 调用程序里的函数
+ */
+public final class Call extends Expr {
+    public final Function callee;
+    /** 函数在 fnList 中的位置，CALL 的操作数 */
+    public final int address;
+    public final List<Expr> arguments;
+
+    public Call(Function callee, int address, List<Expr> arguments) {
+        super(callee.getType());
+        this.callee = callee;
+        this.address = address;
+        this.arguments = arguments;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+        return visitor.visitCall(this);
+    }
+}
@@ -0,0 +1,262 @@
+package miniplc0java.ir;
+
+import miniplc0java.instruction.Function;
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Intermediate;
+import miniplc0java.instruction.Label;
+import miniplc0java.instruction.Operation;
+import miniplc0java.instruction.Peephole;
+
+import java.util.ArrayList;
+
+/**
+ * 由函数的中间表示生成指令，写进 Function.instructionsList
+ * 跳转都指向标号，生成完由 Peephole 优化，再由 Function.resolve 统一计算偏移
+ */
+public final class CodeGenerator implements Visitor<Void> {
+    private final Intermediate intermediate;
+    private final Function function;
+    private final ArrayList<Instruction> code;
+
+    private CodeGenerator(Intermediate intermediate, Function function) {
+        this.intermediate = intermediate;
+        this.function = function;
+        this.code = function.instructionsList;
+    }
+
+    /**
+     * 为 function.body 生成指令，putstr 的 PUSH 登记到 intermediate 的常量池引用里
+     * 生成之后先做窥孔优化，再计算跳转偏移
+     */
+    public static void generate(Intermediate intermediate, Function function, Peephole peephole) {
+        function.body.accept(new CodeGenerator(intermediate, function));
+        peephole.optimize(function);
+        function.resolve();
+    }
+
+    private Instruction emit(Instruction instruction) {
+        code.add(instruction);
+        return instruction;
+    }
+
+    private Instruction emit(Operation opt) {
+        return emit(new Instruction(opt));
+    }
+
+    private Instruction emit(Operation opt, long x) {
+        return emit(new Instruction(opt, x, opt == Operation.PUSH ? 8 : 4));
+    }
+
+    private void address(Variable node) {
+        switch (node.scope) {
+            case LOCAL:
+                emit(Operation.LOCA, node.index);
+                break;
+            case ARGUMENT:
+                emit(Operation.ARGA, node.index);
+                break;
+            default:
+                emit(Operation.GLOBA, node.index);
+                break;
+        }
+    }
+
+    @Override
+    public Void visitIntLiteral(IntLiteral node) {
+        emit(Operation.PUSH, node.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVariable(Variable node) {
+        address(node);
+        emit(Operation.LOAD_64);
+        return null;
+    }
+
+    @Override
+    public Void visitNegate(Negate node) {
+        node.operand.accept(this);
+        emit(node.type == Type.DOUBLE ? Operation.NEG_F : Operation.NEG_I);
+        return null;
+    }
+
+    @Override
+    public Void visitBinary(Binary node) {
+        node.left.accept(this);
+        node.right.accept(this);
+        // 两边类型相同，按左边的类型选整数或浮点指令
+        boolean real = node.left.type == Type.DOUBLE;
+        switch (node.op) {
+            case ADD:
+                emit(real ? Operation.ADD_F : Operation.ADD_I);
+                break;
+            case SUB:
+                emit(real ? Operation.SUB_F : Operation.SUB_I);
+                break;
+            case MUL:
+                emit(real ? Operation.MUL_F : Operation.MUL_I);
+                break;
+            case DIV:
+                emit(real ? Operation.DIV_F : Operation.DIV_I);
+                break;
+            default:
+                emit(real ? Operation.CMP_F : Operation.CMP_I);
+                compare(node.op);
+                break;
+        }
+        return null;
+    }
+
+    // CMP_I、CMP_F 的结果是 -1、0、1，换成比较的真假
+    private void compare(Binary.Op op) {
+        switch (op) {
+            case EQ:
+                emit(Operation.NOT);
+                break;
+            case LT:
+                emit(Operation.SET_LT);
+                break;
+            case GT:
+                emit(Operation.SET_GT);
+                break;
+            case LE:
+                emit(Operation.SET_GT);
+                emit(Operation.NOT);
+                break;
+            case GE:
+                emit(Operation.SET_LT);
+                emit(Operation.NOT);
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public Void visitCall(Call node) {
+        emit(Operation.STACKALLOC, node.callee.getReturnSlots());
+        for (Expr argument : node.arguments) {
+            argument.accept(this);
+        }
+        emit(Operation.CALL, node.address);
+        return null;
+    }
+
+    @Override
+    public Void visitLibCall(LibCall node) {
+        emit(Operation.STACKALLOC, node.returnSlots);
+        if (node.text != null) {
+            node.push = emit(Operation.PUSH, node.string);
+            intermediate.addStringRef(node.push);
+        }
+        if (node.argument != null) {
+            node.argument.accept(this);
+        }
+        node.callName = emit(Operation.CALLNAME, node.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitAssign(Assign node) {
+        address(node.target);
+        node.value.accept(this);
+        emit(Operation.STORE_64);
+        return null;
+    }
+
+    @Override
+    public Void visitExprStatement(ExprStatement node) {
+        node.expr.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitDeclare(Declare node) {
+        if (node.init != null) {
+            address(node.target);
+            node.init.accept(this);
+            emit(Operation.STORE_64);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIf(If node) {
+        // 条件为假时跳到下一个 else if 的条件，或者 else
+        Label skip = branch(node.conditions.get(0), node.blocks.get(0));
+        if (node.conditions.size() == 1 && node.otherwise == null) {
+            function.place(skip);
+            return null;
+        }
+        // 每个分支执行完跳到整个 if 的末尾
+        Label end = new Label();
+        function.jump(Operation.BR, end);
+        for (int i = 1; i < node.conditions.size(); i++) {
+            function.place(skip);
+            skip = branch(node.conditions.get(i), node.blocks.get(i));
+            function.jump(Operation.BR, end);
+        }
+        function.place(skip);
+        if (node.otherwise != null) {
+            node.otherwise.accept(this);
+        }
+        function.place(end);
+        return null;
+    }
+
+    /**
+     * 条件和分支体
+     * @return 条件为假时要跳到的标号，由调用者放下
+     */
+    private Label branch(Expr condition, Block block) {
+        condition.accept(this);
+        Label body = new Label();
+        Label skip = new Label();
+        function.jump(Operation.BR_TRUE, body);
+        function.jump(Operation.BR, skip);
+        function.place(body);
+        block.accept(this);
+        return skip;
+    }
+
+    @Override
+    public Void visitWhile(While node) {
+        Label start = new Label();
+        Label test = new Label();
+        Label body = new Label();
+        Label exit = new Label();
+        function.place(start);
+        function.jump(Operation.BR, test);
+        function.place(test);
+        node.condition.accept(this);
+        function.jump(Operation.BR_TRUE, body);
+        function.jump(Operation.BR, exit);
+        function.place(body);
+        node.body.accept(this);
+        function.jump(Operation.BR, start);
+        function.place(exit);
+        return null;
+    }
+
+    @Override
+    public Void visitReturn(Return node) {
+        if (function.getType() != Type.VOID) {
+            emit(Operation.ARGA, 0);
+        }
+        if (node.value != null) {
+            node.value.accept(this);
+            emit(Operation.STORE_64);
+        }
+        emit(Operation.RET);
+        return null;
+    }
+
+    @Override
+    public Void visitBlock(Block node) {
+        for (Stmt statement : node.statements) {
+            statement.accept(this);
+        }
+        return null;
+    }
+}
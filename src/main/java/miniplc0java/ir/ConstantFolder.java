@@ -0,0 +1,59 @@
+package miniplc0java.ir;
+
+/**
+ * 常量折叠，分析时构造表达式就调用，两边都是字面量的运算直接算出结果
+ * 结果和虚拟机执行生成的指令完全相同：整数按 64 位回绕，比较的结果就是 CMP_I 之后那几条指令的结果；
+ * 会在运行时出错的除法（除以 0、最小值除以 -1）不折叠，留给虚拟机报错
+ */
+public final class ConstantFolder {
+    private ConstantFolder() {
+    }
+
+    /**
+     * left op right，能折叠时返回字面量
+     */
+    public static Expr binary(Binary.Op op, Expr left, Expr right) {
+        if (!(left instanceof IntLiteral) || !(right instanceof IntLiteral)) {
+            return new Binary(op, left, right);
+        }
+        long a = ((IntLiteral) left).value;
+        long b = ((IntLiteral) right).value;
+        // CMP_I 的结果
+        long cmp = Long.compare(a, b);
+        switch (op) {
+            case ADD:
+                return new IntLiteral(a + b);
+            case SUB:
+                return new IntLiteral(a - b);
+            case MUL:
+                return new IntLiteral(a * b);
+            case DIV:
+                if (b == 0 || (a == Long.MIN_VALUE && b == -1)) {
+                    return new Binary(op, left, right);
+                }
+                return new IntLiteral(a / b);
+            case EQ:
+                return new IntLiteral(cmp == 0 ? 1 : 0);
+            case NEQ:
+                return new IntLiteral(cmp);
+            case LT:
+                return new IntLiteral(cmp < 0 ? 1 : 0);
+            case GT:
+                return new IntLiteral(cmp > 0 ? 1 : 0);
+            case LE:
+                return new IntLiteral(cmp > 0 ? 0 : 1);
+            default:
+                return new IntLiteral(cmp < 0 ? 0 : 1);
+        }
+    }
+
+    /**
+     * -operand，能折叠时返回字面量
+     */
+    public static Expr negate(Expr operand) {
+        if (operand instanceof IntLiteral) {
+            return new IntLiteral(-((IntLiteral) operand).value);
+        }
+        return new Negate(operand);
+    }
+}
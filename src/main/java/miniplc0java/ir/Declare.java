@@ -0,0 +1,22 @@
+package miniplc0java.ir;
+
+/**
+ * let 和 const 声明，全局变量的声明在 _start 里
+ */
+public final class Declare extends Stmt {
+    public final Variable target;
+    public final boolean constant;
+    /** 没有初始值时为 null */
+    public final Expr init;
+
+    public Declare(Variable target, boolean constant, Expr init) {
+        this.target = target;
+        this.constant = constant;
+        this.init = init;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+        return visitor.visitDeclare(this);
+    }
+}
@@ -0,0 +1,14 @@
+package miniplc0java.ir;
+
+/**
+ * 表达式，类型在分析时就已经确定
+ */
+public abstract class Expr {
+    public final Type type;
+
+    protected Expr(Type type) {
+        this.type = type;
+    }
+
+    public abstract <R> R accept(Visitor<R> visitor);
+}
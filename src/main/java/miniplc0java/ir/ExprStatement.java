@@ -0,0 +1,17 @@
+package miniplc0java.ir;
+
+/**
+ * 表达式语句
+ */
+public final class ExprStatement extends Stmt {
+    public final Expr expr;
+
+    public ExprStatement(Expr expr) {
+        this.expr = expr;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+        return visitor.visitExprStatement(this);
+    }
+}
@@ -0,0 +1,24 @@
+package miniplc0java.ir;
+
+import java.util.List;
+
+/**
+ * if，后面的 else if 依次放在 conditions 和 blocks 里
+ */
+public final class If extends Stmt {
+    public final List<Expr> conditions;
+    public final List<Block> blocks;
+    /** 最后的 else，没有时为 null */
+    public final Block otherwise;
+
+    public If(List<Expr> conditions, List<Block> blocks, Block otherwise) {
+        this.conditions = conditions;
+        this.blocks = blocks;
+        this.otherwise = otherwise;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+        return visitor.visitIf(this);
+    }
+}
@@ -0,0 +1,18 @@
+package miniplc0java.ir;
+
+/**
+ * 整数和字符字面量
+ */
+public final class IntLiteral extends Expr {
+    public final long value;
+
+    public IntLiteral(long value) {
+        super(Type.INT);
+        this.value = value;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+        return visitor.visitIntLiteral(this);
+    }
+}
@@ -0,0 +1,36 @@
+package miniplc0java.ir;
+
+import miniplc0java.instruction.Instruction;
+
+/**
+ * 调用库函数
+ * 槽位和常量池下标在分析时分配，增量编译重放时会改写它们和生成的指令，见 FunctionRecord
+ */
+public final class LibCall extends Expr {
+    public final String name;
+    /** 全局符号表中的槽位，CALLNAME 的操作数 */
+    public int slot;
+    /** 返回值占的槽位 */
+    public final int returnSlots;
+    /** putint、putchar 的参数，其余为 null */
+    public Expr argument;
+    /** putstr 的字符串和它在常量池中的下标，其余为 null */
+    public String text;
+    public int string = -1;
+
+    /** 生成的 CALLNAME 和 putstr 的 PUSH 指令 */
+    public Instruction callName;
+    public Instruction push;
+
+    public LibCall(String name, int slot, Type type, int returnSlots) {
+        super(type);
+        this.name = name;
+        this.slot = slot;
+        this.returnSlots = returnSlots;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+        return visitor.visitLibCall(this);
+    }
+}
@@ -0,0 +1,18 @@
+package miniplc0java.ir;
+
+/**
+ * 取负
+ */
+public final class Negate extends Expr {
+    public final Expr operand;
+
+    public Negate(Expr operand) {
+        super(operand.type);
+        this.operand = operand;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+        return visitor.visitNegate(this);
+    }
+}
@@ -0,0 +1,18 @@
+package miniplc0java.ir;
+
+/**
+ * return，函数末尾没有 return 时也补一个
+ */
+public final class Return extends Stmt {
+    /** 没有返回值时为 null */
+    public final Expr value;
+
+    public Return(Expr value) {
+        this.value = value;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+        return visitor.visitReturn(this);
+    }
+}
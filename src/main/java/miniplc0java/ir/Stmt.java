@@ -0,0 +1,8 @@
+package miniplc0java.ir;
+
+/**
+ * 语句
+ */
+public abstract class Stmt {
+    public abstract <R> R accept(Visitor<R> visitor);
+}
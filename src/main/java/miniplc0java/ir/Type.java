@@ -0,0 +1,42 @@
+package miniplc0java.ir;
+
+/**
+ * 类型，每种类型只有一个实例，类型检查直接比较引用
+ */
+public enum Type {
+    INT("int"),
+    DOUBLE("double"),
+    VOID("void");
+
+    private final String keyword;
+
+    Type(String keyword) {
+        this.keyword = keyword;
+    }
+
+    /**
+     * Ty Token 的文本对应的类型
+     */
+    public static Type of(String keyword) {
+        switch (keyword) {
+            case "int":
+                return INT;
+            case "double":
+                return DOUBLE;
+            default:
+                return VOID;
+        }
+    }
+
+    /**
+     * 这个类型的值在栈上占的槽位
+     */
+    public int slots() {
+        return this == VOID ? 0 : 1;
+    }
+
+    @Override
+    public String toString() {
+        return keyword;
+    }
+}
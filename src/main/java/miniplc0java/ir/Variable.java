@@ -0,0 +1,29 @@
+package miniplc0java.ir;
+
+/**
+ * 读一个变量；作为赋值的目标时只取地址
+ */
+public final class Variable extends Expr {
+    public enum Scope {
+        /** 局部变量，LOCA */
+        LOCAL,
+        /** 参数，ARGA，下标已经算上返回值的槽位 */
+        ARGUMENT,
+        /** 全局变量，GLOBA */
+        GLOBAL
+    }
+
+    public final Scope scope;
+    public final int index;
+
+    public Variable(Scope scope, int index, Type type) {
+        super(type);
+        this.scope = scope;
+        this.index = index;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+        return visitor.visitVariable(this);
+    }
+}
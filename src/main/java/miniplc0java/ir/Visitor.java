@@ -0,0 +1,32 @@
+package miniplc0java.ir;
+
+/**
+ * 遍历中间表示，代码生成和之后的优化都通过它实现
+ */
+public interface Visitor<R> {
+    R visitIntLiteral(IntLiteral node);
+
+    R visitVariable(Variable node);
+
+    R visitNegate(Negate node);
+
+    R visitBinary(Binary node);
+
+    R visitCall(Call node);
+
+    R visitLibCall(LibCall node);
+
+    R visitAssign(Assign node);
+
+    R visitExprStatement(ExprStatement node);
+
+    R visitDeclare(Declare node);
+
+    R visitIf(If node);
+
+    R visitWhile(While node);
+
+    R visitReturn(Return node);
+
+    R visitBlock(Block node);
+}
@@ -0,0 +1,19 @@
+package miniplc0java.ir;
+
+/**
+ * while 循环
+ */
+public final class While extends Stmt {
+    public final Expr condition;
+    public final Block body;
+
+    public While(Expr condition, Block body) {
+        this.condition = condition;
+        this.body = body;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+        return visitor.visitWhile(this);
+    }
+}
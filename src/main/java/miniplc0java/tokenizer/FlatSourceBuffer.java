@@ -0,0 +1,105 @@
+package miniplc0java.tokenizer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import miniplc0java.util.LineIndex;
+
+/**
+ * 整个源码都在一块缓冲区里（内存映射的文件或者一次读完的标准输入）
+ * 跳过空白和找换行时一次读 8 个字节，用 SWAR 的位运算同时比较每个字节
+ */
+class FlatSourceBuffer extends SourceBuffer {
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH = 0x8080808080808080L;
+    private static final long LOW7 = 0x7F7F7F7F7F7F7F7FL;
+
+    private final ByteBuffer buffer;
+    // 同一块内存的小端视图，getLong 读到的最低字节就是偏移最小的字节
+    private final ByteBuffer words;
+    // 原始长度，不包括补上的 \n
+    private final int rawLength;
+    private final int length;
+    // 第一次报错时才建立
+    private LineIndex lines;
+
+    FlatSourceBuffer(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.words = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.rawLength = buffer.limit();
+        if (rawLength > 0 && buffer.get(rawLength - 1) != '\n') {
+            this.length = rawLength + 1;
+        } else {
+            this.length = rawLength;
+        }
+    }
+
+    @Override
+    public boolean has(int offset) {
+        return offset < length;
+    }
+
+    @Override
+    public char charAt(int offset) {
+        if (offset >= rawLength) {
+            return '\n';
+        }
+        return (char) (buffer.get(offset) & 0xff);
+    }
+
+    @Override
+    public int skipSpaces(int offset) {
+        while (offset + 8 <= rawLength) {
+            long word = words.getLong(offset);
+            long spaces = matches(word, ' ') | matches(word, '\n') | matches(word, '\t') | matches(word, '\r');
+            if (spaces == HIGH) {
+                offset += 8;
+                continue;
+            }
+            offset += Long.numberOfTrailingZeros(~spaces & HIGH) >>> 3;
+            int n = spaceLength(offset);
+            if (n == 0) {
+                return offset;
+            }
+            // \f、全角空格之类少见的空白字符
+            offset += n;
+        }
+        return super.skipSpaces(offset);
+    }
+
+    @Override
+    public int indexOfNewline(int offset) {
+        while (offset + 8 <= rawLength) {
+            long found = matches(words.getLong(offset), '\n');
+            if (found != 0) {
+                return offset + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+            offset += 8;
+        }
+        return super.indexOfNewline(offset);
+    }
+
+    /**
+     * word 中等于 b 的字节，最高位置 1，其余位为 0
+     */
+    private static long matches(long word, char b) {
+        long y = word ^ (ONES * b);
+        return ~(((y & LOW7) + LOW7) | y | LOW7);
+    }
+
+    int length() {
+        return length;
+    }
+
+    // 并行词法分析时可能有多个线程同时报错
+    @Override
+    public synchronized LineIndex lines() {
+        if (lines == null) {
+            lines = LineIndex.of(buffer, rawLength);
+            if (length > rawLength) {
+                lines.addLineStart(length);
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,57 @@
+package miniplc0java.tokenizer;
+
+/**
+ * 关键字识别
+ * 先按长度、再按首字母分派，最多只和一个候选逐字节比较，直接在源码缓冲区上进行，不需要先构造字符串
+ */
+final class Keywords {
+    static final String[] WORDS = {
+            "fn", "as", "if", "let", "int", "else", "void", "const", "while", "return", "double"
+    };
+    static final TokenType[] TYPES = {
+            TokenType.FN_KW, TokenType.AS_KW, TokenType.IF_KW, TokenType.LET_KW, TokenType.Ty, TokenType.ELSE_KW,
+            TokenType.Ty, TokenType.CONST_KW, TokenType.WHILE_KW, TokenType.RETURN_KW, TokenType.Ty
+    };
+
+    private Keywords() {
+    }
+
+    /**
+     * 查找 [start, start + length) 是不是关键字
+     *
+     * @return 关键字在 WORDS 中的下标，不是关键字返回 -1
+     */
+    static int lookup(SourceBuffer source, int start, int length) {
+        int candidate;
+        char first = source.charAt(start);
+        switch (length) {
+            case 2:
+                candidate = first == 'f' ? 0 : first == 'a' ? 1 : first == 'i' ? 2 : -1;
+                break;
+            case 3:
+                candidate = first == 'l' ? 3 : first == 'i' ? 4 : -1;
+                break;
+            case 4:
+                candidate = first == 'e' ? 5 : first == 'v' ? 6 : -1;
+                break;
+            case 5:
+                candidate = first == 'c' ? 7 : first == 'w' ? 8 : -1;
+                break;
+            case 6:
+                candidate = first == 'r' ? 9 : first == 'd' ? 10 : -1;
+                break;
+            default:
+                return -1;
+        }
+        if (candidate < 0) {
+            return -1;
+        }
+        String word = WORDS[candidate];
+        for (int i = 1; i < length; i++) {
+            if (source.charAt(start + i) != word.charAt(i)) {
+                return -1;
+            }
+        }
+        return candidate;
+    }
+}
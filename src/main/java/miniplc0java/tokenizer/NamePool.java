@@ -0,0 +1,150 @@
+package miniplc0java.tokenizer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 每次编译一个的标识符池
+ * 直接用源码缓冲区里的字节查表，同名的标识符只构造一次 String，之后的 Token 都共享这个对象，
+ * 所以后面的符号比较大多在引用相等时就能结束；id 按第一次出现的顺序从 0 开始编号
+ */
+public class NamePool {
+    private String[] names = new String[256];
+    private int[] hashes = new int[256];
+    private int[] ids = new int[256];
+    // 按编号排列的标识符
+    private String[] byId = new String[256];
+    private int size = 0;
+
+    /**
+     * 取得 [start, start + length) 这个标识符对应的唯一 String
+     */
+    public String intern(SourceBuffer source, int start, int length) {
+        int id = internId(source, start, length);
+        return byId[id];
+    }
+
+    /**
+     * 和 intern 相同，但返回编号
+     */
+    public int internId(SourceBuffer source, int start, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            char c = source.charAt(start + i);
+            if (c >= 0x80) {
+                // 非 ASCII 的标识符先按 UTF-8 解码，String 的 hashCode 和这里的算法相同，放在同一张表里
+                byte[] bytes = new byte[length];
+                for (int j = 0; j < length; j++) {
+                    bytes[j] = (byte) source.charAt(start + j);
+                }
+                return internId(new String(bytes, StandardCharsets.UTF_8));
+            }
+            hash = 31 * hash + c;
+        }
+        int mask = names.length - 1;
+        int slot = hash & mask;
+        while (names[slot] != null) {
+            if (hashes[slot] == hash && sameName(names[slot], source, start, length)) {
+                return ids[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = source.charAt(start + i);
+        }
+        String name = new String(chars);
+        return insert(slot, name, hash);
+    }
+
+    /**
+     * 把另一个池里的标识符加进来，返回它在这个池里的编号
+     */
+    public int internId(String name) {
+        int hash = name.hashCode();
+        int mask = names.length - 1;
+        int slot = hash & mask;
+        while (names[slot] != null) {
+            if (hashes[slot] == hash && names[slot].equals(name)) {
+                return ids[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return insert(slot, name, hash);
+    }
+
+    /**
+     * 已经入池的标识符的编号，不在池中返回 -1
+     */
+    public int id(String name) {
+        int hash = name.hashCode();
+        int mask = names.length - 1;
+        int slot = hash & mask;
+        while (names[slot] != null) {
+            if (hashes[slot] == hash && names[slot].equals(name)) {
+                return ids[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * 按编号取回标识符
+     */
+    public String name(int id) {
+        return byId[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int insert(int slot, String name, int hash) {
+        names[slot] = name;
+        hashes[slot] = hash;
+        if (size == byId.length) {
+            byId = Arrays.copyOf(byId, size * 2);
+        }
+        byId[size] = name;
+        ids[slot] = size++;
+        if (size * 2 > names.length) {
+            grow();
+        }
+        return size - 1;
+    }
+
+    private static boolean sameName(String name, SourceBuffer source, int start, int length) {
+        if (name.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != source.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void grow() {
+        String[] oldNames = names;
+        int[] oldHashes = hashes;
+        int[] oldIds = ids;
+        names = new String[oldNames.length * 2];
+        hashes = new int[names.length];
+        ids = new int[names.length];
+        int mask = names.length - 1;
+        for (int i = 0; i < oldNames.length; i++) {
+            if (oldNames[i] == null) {
+                continue;
+            }
+            int slot = oldHashes[i] & mask;
+            while (names[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            names[slot] = oldNames[i];
+            hashes[slot] = oldHashes[i];
+            ids[slot] = oldIds[i];
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package miniplc0java.tokenizer;
+
+import miniplc0java.error.ErrorCode;
+import miniplc0java.error.TokenizeError;
+
+/**
+ * 直接在源码缓冲区上解析数字字面量，不经过 String
+ * 整数：digit+，按无符号 64 位累加，和 PUSH 的 64 位操作数一致，超过 2^64-1 报 IntegerOverflow
+ * 浮点数：digit+ '.' digit+ ([eE] [+-]? digit+)?，结构不对报 InvalidInput
+ * 浮点数的有效数字不超过 15 位、指数不超过 22 时，用一次精确的乘除得到正确舍入的结果，
+ * 其余少见的情况交给 Double.parseDouble
+ */
+final class NumberLiteral {
+    private static final double[] POWERS = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    // 2^64-1 除以 10 的商和余数，用来判断累加时是否溢出
+    private static final long MAX_DIV_10 = Long.divideUnsigned(-1L, 10);
+    private static final long MAX_MOD_10 = Long.remainderUnsigned(-1L, 10);
+
+    private final Tokenizer owner;
+    private final SourceBuffer source;
+
+    /** Uint 或 Double */
+    TokenType type;
+    /** Uint 的值，或者 Double 的 Double.doubleToRawLongBits */
+    long value;
+    /** 字面量之后第一个字符的偏移 */
+    int end;
+
+    NumberLiteral(Tokenizer owner, SourceBuffer source) {
+        this.owner = owner;
+        this.source = source;
+    }
+
+    /**
+     * 解析从 start 开始的字面量，start 上必须是数字
+     */
+    void scan(int start) throws TokenizeError {
+        int p = start;
+        long mantissa = 0;
+        boolean overflow = false;
+        // 有效数字的个数，不算前导的 0
+        int digits = 0;
+        char c;
+        while (isDigit(c = source.charAt(p))) {
+            int d = c - '0';
+            overflow |= Long.compareUnsigned(mantissa, MAX_DIV_10) > 0
+                    || mantissa == MAX_DIV_10 && d > MAX_MOD_10;
+            mantissa = mantissa * 10 + d;
+            if (mantissa != 0) {
+                digits++;
+            }
+            p++;
+        }
+        if (c != '.') {
+            if (overflow) {
+                throw owner.error(ErrorCode.IntegerOverflow, start);
+            }
+            type = TokenType.Uint;
+            value = mantissa;
+            end = p;
+            return;
+        }
+
+        p++;
+        int exponent = 0;
+        if (!isDigit(source.charAt(p))) {
+            throw owner.error(ErrorCode.InvalidInput, p);
+        }
+        while (isDigit(c = source.charAt(p))) {
+            if (digits < 19) {
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa != 0) {
+                    digits++;
+                }
+                exponent--;
+            } else {
+                digits++;
+            }
+            p++;
+        }
+        if (c == 'e' || c == 'E') {
+            p++;
+            boolean negative = false;
+            if (source.charAt(p) == '+' || source.charAt(p) == '-') {
+                negative = source.charAt(p) == '-';
+                p++;
+            }
+            if (!isDigit(source.charAt(p))) {
+                throw owner.error(ErrorCode.InvalidInput, p);
+            }
+            int e = 0;
+            while (isDigit(c = source.charAt(p))) {
+                // 指数再大也只会得到 0 或者无穷大，不用继续累加
+                if (e < 100000) {
+                    e = e * 10 + (c - '0');
+                }
+                p++;
+            }
+            exponent += negative ? -e : e;
+        }
+        type = TokenType.Double;
+        end = p;
+        double result;
+        if (!overflow && digits <= 15 && Math.abs(exponent) <= 22) {
+            // 尾数和 10 的幂都能精确表示，一次乘除就是正确舍入的结果
+            result = exponent < 0 ? mantissa / POWERS[-exponent] : mantissa * POWERS[exponent];
+        } else {
+            if (!source.retained(start)) {
+                throw owner.error(ErrorCode.TokenTooLong, start);
+            }
+            result = Double.parseDouble(text(start, p));
+        }
+        value = Double.doubleToRawLongBits(result);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private String text(int start, int end) {
+        char[] chars = new char[end - start];
+        for (int i = start; i < end; i++) {
+            chars[i - start] = source.charAt(i);
+        }
+        return new String(chars);
+    }
+}
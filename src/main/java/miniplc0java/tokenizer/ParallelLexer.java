@@ -0,0 +1,213 @@
+package miniplc0java.tokenizer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import miniplc0java.util.LineIndex;
+
+/**
+ * 并行的预先词法分析，用于很大的源文件
+ * 源码在字面量和注释之外的换行处切开，各段在 ForkJoinPool 上分别用选定的词法分析器分析，
+ * 再按顺序拼成一个 TokenStream，结果（包括标识符编号和报错）和顺序分析完全相同；
+ * 线程池按线程数缓存，编译服务反复编译时不用每次重新创建线程
+ *
+ * 切分点要知道每个换行是否在字符串或字符字面量里，这取决于前面所有的内容，所以分两步：
+ * 先并行地对每段算出“进入这段时的状态 -> 离开这段时的状态”的转移表，
+ * 再顺序地把转移表串起来，得到每段开头的真实状态
+ */
+public final class ParallelLexer {
+    /** 小于这个大小的源码直接顺序分析 */
+    static final int MIN_CHUNK = 256 * 1024;
+
+    // 切分用的简化状态机，只区分是否在字面量或注释里
+    static final int NORMAL = 0;
+    static final int SLASH = 1;
+    static final int COMMENT = 2;
+    static final int STR = 3;
+    static final int STR_ESC = 4;
+    static final int CHR = 5;
+    static final int CHR_ESC = 6;
+    static final int STATES = 7;
+
+    static final byte[][] NEXT = new byte[STATES][256];
+
+    // 线程数 -> 线程池，池里的线程是守护线程，不用关闭
+    private static final ConcurrentHashMap<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
+    static {
+        for (int c = 0; c < 256; c++) {
+            NEXT[NORMAL][c] = (byte) (c == '/' ? SLASH : c == '"' ? STR : c == '\'' ? CHR : NORMAL);
+            NEXT[SLASH][c] = c == '/' ? COMMENT : NEXT[NORMAL][c];
+            NEXT[COMMENT][c] = (byte) (c == '\n' ? NORMAL : COMMENT);
+            NEXT[STR][c] = (byte) (c == '"' ? NORMAL : c == '\\' ? STR_ESC : STR);
+            NEXT[STR_ESC][c] = STR;
+            NEXT[CHR][c] = (byte) (c == '\'' ? NORMAL : c == '\\' ? CHR_ESC : CHR);
+            NEXT[CHR_ESC][c] = CHR;
+        }
+    }
+
+    private ParallelLexer() {
+    }
+
+    /**
+     * 用 jobs 个线程、engine 指定的词法分析器分析整个源码
+     * 流式读取的源码没法随机访问，以及源码太小时，退回按需读取的 TokenStream
+     */
+    public static TokenStream lex(SourceBuffer source, int jobs, Tokenizer.Engine engine) {
+        if (!(source instanceof FlatSourceBuffer) || jobs <= 1
+                || ((FlatSourceBuffer) source).length() < 2 * MIN_CHUNK) {
+            return new TokenStream(Tokenizer.create(new StringIter(source), engine));
+        }
+        FlatSourceBuffer flat = (FlatSourceBuffer) source;
+        ForkJoinPool pool = POOLS.computeIfAbsent(jobs, ForkJoinPool::new);
+        int length = flat.length();
+        int chunks = Math.min(jobs * 4, length / MIN_CHUNK);
+        int[] bounds = split(pool, flat, length, chunks);
+
+        List<Callable<TokenStream>> tasks = new ArrayList<>();
+        for (int i = 0; i < chunks; i++) {
+            int from = bounds[i];
+            int to = bounds[i + 1];
+            tasks.add(() -> {
+                TokenStream chunk = new TokenStream(tokenizer(flat, from, to, engine));
+                chunk.fill();
+                return chunk;
+            });
+        }
+        List<Future<TokenStream>> parts = pool.invokeAll(tasks);
+
+        TokenStream result = new TokenStream(source);
+        for (int i = 0; i < chunks; i++) {
+            // 某一段有词法错误时，后面的段都不要了
+            if (!result.append(get(parts.get(i)), i == chunks - 1)) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 只分析 [from, to) 的词法分析器，to 在字面量和注释之外的换行之后
+     * Tokenizer 没有上界，给它一个只到 to 为止的源码视图，偏移不变
+     */
+    static Tokenizer tokenizer(FlatSourceBuffer source, int from, int to, Tokenizer.Engine engine) {
+        if (engine == Tokenizer.Engine.TABLE) {
+            return new TableTokenizer(new StringIter(source), from, to);
+        }
+        StringIter it = new StringIter(new Slice(source, to));
+        it.offset = from;
+        return new Tokenizer(it);
+    }
+
+    /**
+     * 把 [0, length) 分成 chunks 段，返回 chunks + 1 个边界，每个内部边界都紧跟在一个字面量外的换行之后
+     * 找不到合适的换行时，后面的段为空
+     */
+    static int[] split(ForkJoinPool pool, SourceBuffer source, int length, int chunks) {
+        int size = length / chunks;
+        List<Callable<byte[]>> tasks = new ArrayList<>();
+        for (int i = 0; i < chunks; i++) {
+            int from = i * size;
+            int to = i == chunks - 1 ? length : from + size;
+            tasks.add(() -> transfer(source, from, to));
+        }
+        List<Future<byte[]>> transfers = pool.invokeAll(tasks);
+
+        int[] bounds = new int[chunks + 1];
+        bounds[chunks] = length;
+        int state = NORMAL;
+        for (int i = 1; i < chunks; i++) {
+            state = get(transfers.get(i - 1))[state];
+            bounds[i] = Math.max(bounds[i - 1], boundary(source, i * size, length, state));
+        }
+        return bounds;
+    }
+
+    /**
+     * 对每个进入状态，算出扫过 [from, to) 之后的状态
+     */
+    static byte[] transfer(SourceBuffer source, int from, int to) {
+        byte[] states = new byte[STATES];
+        for (int s = 0; s < STATES; s++) {
+            states[s] = (byte) s;
+        }
+        for (int p = from; p < to; p++) {
+            char c = source.charAt(p);
+            for (int s = 0; s < STATES; s++) {
+                states[s] = NEXT[states[s]][c];
+            }
+        }
+        return states;
+    }
+
+    /**
+     * 从 from 开始（进入时状态为 state）找第一个字面量外的换行，返回它后面的位置
+     */
+    static int boundary(SourceBuffer source, int from, int length, int state) {
+        for (int p = from; p < length; p++) {
+            char c = source.charAt(p);
+            state = NEXT[state][c];
+            if (c == '\n' && state == NORMAL) {
+                return p + 1;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * source 的 [0, end) 部分，行首表仍然是整个源码的
+     */
+    private static final class Slice extends SourceBuffer {
+        private final FlatSourceBuffer source;
+        private final int end;
+
+        Slice(FlatSourceBuffer source, int end) {
+            this.source = source;
+            this.end = end;
+        }
+
+        @Override
+        public boolean has(int offset) {
+            return offset < end;
+        }
+
+        @Override
+        public char charAt(int offset) {
+            return source.charAt(offset);
+        }
+
+        @Override
+        public int skipSpaces(int offset) {
+            return Math.min(source.skipSpaces(offset), end);
+        }
+
+        @Override
+        public int indexOfNewline(int offset) {
+            return Math.min(source.indexOfNewline(offset), end);
+        }
+
+        @Override
+        public LineIndex lines() {
+            return source.lines();
+        }
+    }
+
+    private static <T> T get(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package miniplc0java.tokenizer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import miniplc0java.util.LineIndex;
+
+/**
+ * 以字节为单位的源码缓冲区，StringIter 通过绝对偏移读取
+ * 约定：如果源码不以 \n 结尾，就在末尾虚拟补一个 \n
+ */
+public abstract class SourceBuffer {
+    /** 流式读取时默认的窗口大小 */
+    public static final int DEFAULT_WINDOW = 64 * 1024;
+
+    /**
+     * 内存映射一个源文件
+     */
+    public static SourceBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= Integer.MAX_VALUE) {
+                throw new IOException("source file too large: " + path);
+            }
+            return new FlatSourceBuffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * 把整个输入流读进一块缓冲区，用于标准输入
+     */
+    public static SourceBuffer read(InputStream input) throws IOException {
+        return new FlatSourceBuffer(ByteBuffer.wrap(input.readAllBytes()));
+    }
+
+    /**
+     * 按块流式读取输入，只保留最近 windowSize 字节；
+     * 行首表、Token 和字符串字面量只保留当前顶层声明的部分，所以内存占用是窗口加上最大的一个声明，和源码总大小无关
+     * 单个 Token 不能比窗口长，输入不能超过 2 GiB
+     */
+    public static SourceBuffer stream(InputStream input, int windowSize) {
+        return new StreamingSourceBuffer(input, windowSize);
+    }
+
+    public static SourceBuffer of(String source) {
+        return of(source.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static SourceBuffer of(byte[] source) {
+        return new FlatSourceBuffer(ByteBuffer.wrap(source));
+    }
+
+    /**
+     * 偏移 offset 上是否还有字符，流式读取时可能触发读入下一块
+     */
+    public abstract boolean has(int offset);
+
+    /**
+     * 获取某个偏移上的字节，按无符号值返回
+     */
+    public abstract char charAt(int offset);
+
+    /**
+     * 从 offset 开始按 UTF-8 解码一个字符，返回码点，offset 上是 ASCII 时就是 charAt(offset)
+     * 不是合法的 UTF-8（截断、多余的续字节、过长编码、代理区）时返回 -1；编码的字节数是 utf8Length
+     */
+    public int codePointAt(int offset) {
+        char lead = charAt(offset);
+        if (lead < 0x80) {
+            return lead;
+        }
+        int length;
+        int cp;
+        if (lead >= 0xc2 && lead <= 0xdf) {
+            length = 2;
+            cp = lead & 0x1f;
+        } else if (lead >= 0xe0 && lead <= 0xef) {
+            length = 3;
+            cp = lead & 0x0f;
+        } else if (lead >= 0xf0 && lead <= 0xf4) {
+            length = 4;
+            cp = lead & 0x07;
+        } else {
+            return -1;
+        }
+        for (int i = 1; i < length; i++) {
+            if (!has(offset + i)) {
+                return -1;
+            }
+            char c = charAt(offset + i);
+            if ((c & 0xc0) != 0x80) {
+                return -1;
+            }
+            cp = (cp << 6) | (c & 0x3f);
+        }
+        if (utf8Length(cp) != length || (cp >= 0xd800 && cp <= 0xdfff) || cp > Character.MAX_CODE_POINT) {
+            return -1;
+        }
+        return cp;
+    }
+
+    /**
+     * 码点 cp 的 UTF-8 编码的字节数
+     */
+    public static int utf8Length(int cp) {
+        return cp < 0x80 ? 1 : cp < 0x800 ? 2 : cp < 0x10000 ? 3 : 4;
+    }
+
+    /**
+     * offset 上的空白字符占几个字节，不是空白字符时为 0
+     * 非 ASCII 的空白字符（比如全角空格）按 UTF-8 解码之后判断
+     */
+    int spaceLength(int offset) {
+        char c = charAt(offset);
+        if (c < 0x80) {
+            return Character.isWhitespace(c) ? 1 : 0;
+        }
+        int cp = codePointAt(offset);
+        return cp >= 0 && Character.isWhitespace(cp) ? utf8Length(cp) : 0;
+    }
+
+    /**
+     * 从 offset 开始跳过空白字符，返回第一个非空白字符的偏移（没有则返回源码长度）
+     */
+    public int skipSpaces(int offset) {
+        int n;
+        while (has(offset) && (n = spaceLength(offset)) > 0) {
+            offset += n;
+        }
+        return offset;
+    }
+
+    /**
+     * 从 offset 开始找第一个 \n，源码总是以 \n 结尾，所以一定能找到
+     */
+    public int indexOfNewline(int offset) {
+        while (charAt(offset) != '\n') {
+            offset++;
+        }
+        return offset;
+    }
+
+    /**
+     * offset 上的字节是否还在，流式读取时窗口之前的部分已经丢掉了；
+     * 标识符和数字读完之后要回到开头再看一遍，比窗口还长时用它报错
+     */
+    public boolean retained(int offset) {
+        return true;
+    }
+
+    /**
+     * 之后不会再还原 offset 之前的位置，流式读取时丢掉这之前的行首，见 TokenStream.release
+     */
+    public void release(int offset) {
+    }
+
+    /**
+     * 能否从头再读一遍，流式读取时读过的部分已经丢掉了
+     */
+    public boolean rereadable() {
+        return true;
+    }
+
+    /**
+     * 行首表，只在报错需要行列号时使用
+     */
+    public abstract LineIndex lines();
+}
@@ -0,0 +1,114 @@
+package miniplc0java.tokenizer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+import miniplc0java.util.LineIndex;
+
+/**
+ * 滑动窗口：输入按块读进一个环形缓冲区，只有最近 window.length 字节可以访问
+ * 词法分析只会向前读（最多回退一个字符），只有标识符和数字读完后要回到开头，
+ * 比窗口还长的 Token 由 retained 检查出来，报 TokenTooLong
+ * 行首表在读入时建立，分析完一个顶层声明后由 release 丢掉它之前的行首，只留行号
+ * 偏移是 int，输入超过 2 GiB 时报错
+ */
+class StreamingSourceBuffer extends SourceBuffer {
+    private final InputStream input;
+    private final byte[] window;
+    // 每次从输入读一块，取窗口的四分之一，保证回退时上一块还在
+    private final int chunkSize;
+    // 已经读入的字节数，也就是下一个要读入的字节的绝对偏移
+    private int loaded = 0;
+    private boolean finished = false;
+    // 读完以后的总长度（包括补上的 \n）
+    private int length = -1;
+    private byte last = '\n';
+    // 窗口里的内容会被丢弃，所以行首表在读入时就顺便建立
+    private final LineIndex lines = new LineIndex();
+    // 最后补上的 \n 也要占一个偏移
+    static final int MAX_LENGTH = Integer.MAX_VALUE - 1;
+
+    StreamingSourceBuffer(InputStream input, int windowSize) {
+        if (windowSize < 16) {
+            throw new IllegalArgumentException("window too small: " + windowSize);
+        }
+        this.input = input;
+        this.window = new byte[windowSize];
+        this.chunkSize = Math.max(1, windowSize / 4);
+    }
+
+    @Override
+    public boolean has(int offset) {
+        while (!finished && offset >= loaded) {
+            fill();
+        }
+        return finished ? offset < length : true;
+    }
+
+    @Override
+    public char charAt(int offset) {
+        if (!has(offset)) {
+            return '\n';
+        }
+        if (offset >= loaded) {
+            // 补上的 \n
+            return '\n';
+        }
+        if (offset < loaded - window.length) {
+            throw new Error("read before sliding window: " + offset);
+        }
+        return (char) (window[offset % window.length] & 0xff);
+    }
+
+    @Override
+    public boolean retained(int offset) {
+        return offset >= loaded - window.length;
+    }
+
+    @Override
+    public void release(int offset) {
+        lines.discardBefore(offset);
+    }
+
+    @Override
+    public boolean rereadable() {
+        return false;
+    }
+
+    @Override
+    public LineIndex lines() {
+        return lines;
+    }
+
+    private void fill() {
+        int start = loaded % window.length;
+        int size = Math.min(chunkSize, window.length - start);
+        int n;
+        try {
+            n = input.read(window, start, size);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (n < 0) {
+            finished = true;
+            length = loaded > 0 && last != '\n' ? loaded + 1 : loaded;
+            if (length > loaded) {
+                lines.addLineStart(length);
+            }
+            return;
+        }
+        if (n > MAX_LENGTH - loaded) {
+            throw new UncheckedIOException(new IOException("source is larger than 2 GiB"));
+        }
+        for (int i = 0; i < n; i++) {
+            if (window[start + i] == '\n') {
+                lines.addLineStart(loaded + i + 1);
+            }
+        }
+        if (n > 0) {
+            loaded += n;
+            last = window[(loaded - 1) % window.length];
+        }
+    }
+}
@@ -1,102 +1,73 @@
 package miniplc0java.tokenizer;
 
-import java.util.ArrayList;
-import java.util.Optional;
-import java.util.Scanner;
-
-import miniplc0java.util.Pos;
+import miniplc0java.util.LineIndex;
 
 /**
  * 这是一个从 C++ 版本抄过来的字符迭代器
  */
 public class StringIter {
-    // 以行为基础的缓冲区
-    ArrayList<String> linesBuffer = new ArrayList<>();
-
-    Scanner scanner;
+    // 源码缓冲区，可能是整个文件，也可能是流式读取的滑动窗口
+    SourceBuffer source;
     // 指向下一个要读取的字符
-    Pos ptr = new Pos(0, 0);
+    int offset = 0;
 
-    boolean initialized = false;
+    boolean hasPeeked = false;
+    char peeked;
 
-    Optional<Character> peeked = Optional.empty();
-
-    public StringIter(Scanner scanner) {
-        this.scanner = scanner;
+    public StringIter(SourceBuffer source) {
+        this.source = source;
     }
 
-    // 从这里开始其实是一个基于行号的缓冲区的实现
-    // 为了简单起见，我们没有单独拿出一个类实现
+    // 从这里开始其实是一个基于偏移的缓冲区的实现
     // 核心思想和 C 的文件输入输出类似，就是一个 buffer 加一个指针，有三个细节
-    // 1.缓冲区包括 \n
+    // 1.缓冲区以 \n 结尾（如果源码没有，由 SourceBuffer 补上）
     // 2.指针始终指向下一个要读取的 char
-    // 3.行号和列号从 0 开始
-
-    // 一次读入全部内容，并且替换所有换行为 \n
-    // 这样其实是不合理的，这里只是简单起见这么实现
-    public void readAll() {
-        if (initialized) {
-            return;
-        }
-        while (scanner.hasNext()) {
-            linesBuffer.add(scanner.nextLine() + '\n');
-        }
-        // todo:check read \n?
-        initialized = true;
-    }
+    // 3.位置就是字符在源码中的偏移，从 0 开始，行号和列号只在报错时由 lines() 还原
 
     // 一个简单的总结
     // | 0 | 1 | 2 | 3 | 4 | 5 | 6 | 7 | 8 | 9 | 偏移
     // | = | = | = | = | = | = | = | = | = | = |
-    // | h | a | 1 | 9 | 2 | 6 | 0 | 8 | 1 | \n |（缓冲区第0行）
-    // | 7 | 1 | 1 | 4 | 5 | 1 | 4 | （缓冲区第1行）
-    // 这里假设指针指向第一行的 \n，那么有
-    // nextPos() = (1, 0)
-    // currentPos() = (0, 9)
-    // previousPos() = (0, 8)
-    // nextChar() = '\n' 并且指针移动到 (1, 0)
-    // unreadLast() 指针移动到 (0, 8)
+    // | h | a | 1 | 9 | 2 | 6 | 0 | 8 | 1 | \n |
+    // 这里假设指针指向 \n，那么有
+    // nextPos() = 10
+    // currentPos() = 9
+    // previousPos() = 8
+    // nextChar() = '\n' 并且指针移动到 10
+    // unreadLast() 指针移动到 8
     /**
      * 获取下一个字符的位置
      */
-    public Pos nextPos() {
-        if (ptr.row >= linesBuffer.size()) {
+    public long nextPos() {
+        if (!source.has(offset)) {
             throw new Error("advance after EOF");
         }
-        if (ptr.col == linesBuffer.get(ptr.row).length() - 1) {
-            return new Pos(ptr.row + 1, 0);
-        }
-        return new Pos(ptr.row, ptr.col + 1);
+        return offset + 1;
     }
 
     /**
      * 获取当前字符的位置
      */
-    public Pos currentPos() {
-        return ptr;
+    public long currentPos() {
+        return offset;
     }
 
     /**
      * 获取上一个字符的位置
      */
-    public Pos previousPos() {
-        if (ptr.row == 0 && ptr.col == 0) {
+    public long previousPos() {
+        if (offset == 0) {
             throw new Error("previous position from beginning");
         }
-        if (ptr.col == 0) {
-            return new Pos(ptr.row - 1, linesBuffer.get(ptr.row - 1).length() - 1);
-        }
-        return new Pos(ptr.row, ptr.col - 1);
+        return offset - 1;
     }
 
     /**
      * 将指针指向下一个字符，并返回当前字符
      */
     public char nextChar() {
-        if (this.peeked.isPresent()) {
-            char ch = this.peeked.get();
-            this.peeked = Optional.empty();
-            return ch;
+        if (this.hasPeeked) {
+            this.hasPeeked = false;
+            return this.peeked;
         } else {
             return this.getNextChar();
         }
@@ -106,31 +77,72 @@ public class StringIter {
         if (isEOF()) {
             return 0;
         }
-        char result = linesBuffer.get(ptr.row).charAt(ptr.col);
-        ptr = nextPos();
-        return result;
+        return source.charAt(offset++);
     }
 
     /**
      * 查看下一个字符，但不移动指针
      */
     public char peekChar() {
-        if (peeked.isPresent()) {
-            return peeked.get();
+        if (hasPeeked) {
+            return peeked;
         } else {
             char ch = getNextChar();
-            this.peeked = Optional.of(ch);
+            this.peeked = ch;
+            this.hasPeeked = true;
             return ch;
         }
     }
 
     public Boolean isEOF() {
-        return ptr.row >= linesBuffer.size();
+        return !source.has(offset);
+    }
+
+    /**
+     * 跳过连续的空白字符，之后的状态和逐个 peekChar、nextChar 跳过时相同：
+     * 偷看了第一个非空白字符，或者到了 EOF
+     */
+    public void skipSpaces() {
+        int next = source.skipSpaces(hasPeeked ? offset - 1 : offset);
+        if (source.has(next)) {
+            peekAt(next);
+        } else {
+            offset = next;
+            hasPeeked = false;
+        }
+    }
+
+    /**
+     * 移动到 offset 并偷看这个字符，相当于读到 offset 之前，再调用一次 peekChar
+     */
+    void peekAt(int offset) {
+        this.offset = offset + 1;
+        this.peeked = source.charAt(offset);
+        this.hasPeeked = true;
+    }
+
+    /**
+     * 如果接下来是 //，跳过整行注释和行尾的换行并返回 true，否则什么也不做
+     */
+    public boolean skipLineComment() {
+        int start = hasPeeked ? offset - 1 : offset;
+        if (!source.has(start) || source.charAt(start) != '/' || source.charAt(start + 1) != '/') {
+            return false;
+        }
+        offset = source.indexOfNewline(start + 2) + 1;
+        hasPeeked = false;
+        return true;
     }
 
     // Note: Is it evil to unread a buffer?
     public void unreadLast() {
-        ptr = previousPos();
+        offset = (int) previousPos();
     }
 
+    /**
+     * 源码的行首表，用于把位置还原成行列号
+     */
+    public LineIndex lines() {
+        return source.lines();
+    }
 }
@@ -0,0 +1,304 @@
+package miniplc0java.tokenizer;
+
+import miniplc0java.error.ErrorCode;
+import miniplc0java.error.TokenizeError;
+
+/**
+ * 表驱动的词法分析器
+ * 用 128 项的字符类别表代替 Character.isXxx 的判断链，多字符运算符用转移表识别，
+ * 直接按偏移读取 SourceBuffer，不经过 StringIter 的 peek/next
+ * 产生的 Token 序列（包括位置）和 Tokenizer 完全一致
+ */
+public class TableTokenizer extends Tokenizer {
+    // 字符类别
+    static final byte OTHER = 0;
+    static final byte SPACE = 1;
+    static final byte DIGIT = 2;
+    static final byte IDENT = 3;
+    static final byte STR = 4;
+    static final byte CHAR = 5;
+    static final byte OP = 6;
+
+    static final byte[] CLASS = new byte[128];
+
+    // 运算符转移表：SINGLE[c] 是只有一个字符时的类型，
+    // 如果 PAIR_NEXT[c] 和下一个字符相同，则组成 PAIR[c]
+    static final TokenType[] SINGLE = new TokenType[128];
+    static final char[] PAIR_NEXT = new char[128];
+    static final TokenType[] PAIR = new TokenType[128];
+    static final String[] PAIR_TEXT = new String[128];
+
+    static {
+        for (char c = 0; c < 128; c++) {
+            if (Character.isWhitespace(c)) {
+                CLASS[c] = SPACE;
+            }
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            CLASS[c] = DIGIT;
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            CLASS[c] = IDENT;
+            CLASS[Character.toUpperCase(c)] = IDENT;
+        }
+        CLASS['_'] = IDENT;
+        CLASS['"'] = STR;
+        CLASS['\''] = CHAR;
+
+        single('+', TokenType.PLUS);
+        single('*', TokenType.MUL);
+        single('(', TokenType.L_PAREN);
+        single(')', TokenType.R_PAREN);
+        single('{', TokenType.L_BRACE);
+        single('}', TokenType.R_BRACE);
+        single(',', TokenType.COMMA);
+        single(':', TokenType.COLON);
+        single(';', TokenType.SEMICOLON);
+        pair('-', TokenType.MINUS, '>', TokenType.ARROW);
+        pair('=', TokenType.ASSIGN, '=', TokenType.EQ);
+        pair('<', TokenType.LT, '=', TokenType.LE);
+        pair('>', TokenType.GT, '=', TokenType.GE);
+        pair('!', null, '=', TokenType.NEQ);
+        // "//" 是注释，PAIR 为 null
+        pair('/', TokenType.DIV, '/', null);
+    }
+
+    private static void single(char c, TokenType type) {
+        CLASS[c] = OP;
+        SINGLE[c] = type;
+    }
+
+    private static void pair(char c, TokenType single, char next, TokenType pair) {
+        CLASS[c] = OP;
+        SINGLE[c] = single;
+        PAIR_NEXT[c] = next;
+        PAIR[c] = pair;
+        PAIR_TEXT[c] = new String(new char[]{c, next});
+    }
+
+    /**
+     * offset 上字符的类别，非 ASCII 字符按 UTF-8 解码，只可能是标识符或者非法字符（空白已经跳过了）
+     */
+    static byte classOf(SourceBuffer source, int offset, char c) {
+        if (c < 128) {
+            return CLASS[c];
+        }
+        return identLength(source, offset, true) > 0 ? IDENT : OTHER;
+    }
+
+    private final SourceBuffer source;
+    // 下一个要读取的字符
+    private int pos = 0;
+    // 只分析 limit 之前的部分，并行分析时每段有自己的上界
+    private final int limit;
+
+    // scan() 的结果：类型、起止位置，以及按 TokenStream 约定编码的字面量
+    private TokenType type;
+    private int start;
+    private int end;
+    private long payload;
+    private String literal;
+
+    public TableTokenizer(StringIter it) {
+        this(it, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 只分析 [from, limit) 这一段，limit 必须在字面量和注释之外的换行之后
+     */
+    TableTokenizer(StringIter it, int from, int limit) {
+        super(it);
+        this.source = it.source;
+        this.pos = from;
+        this.limit = limit;
+    }
+
+    @Override
+    public Token nextToken() throws TokenizeError {
+        scan();
+        return new Token(type, value(type, payload, literal, names), start, end);
+    }
+
+    /**
+     * 直接把扫描结果写进 TokenStream，不构造 Token 对象
+     */
+    @Override
+    void nextTokenInto(TokenStream out) throws TokenizeError {
+        scan();
+        if (type == TokenType.Str) {
+            out.addString(type, start, end, literal);
+        } else {
+            out.add(type, start, end, payload);
+        }
+    }
+
+    // 位置的约定和 Tokenizer 相同：Tokenizer 在结束一个 Token 时往往已经偷看了下一个字符，
+    // 所以标识符、数字的结束位置，以及单字符的 - / = < > 的起止位置都多算了一个字符
+    private void scan() throws TokenizeError {
+        payload = 0;
+        literal = null;
+        while (true) {
+            pos = Math.min(source.skipSpaces(pos), limit);
+            if (!more(pos)) {
+                set(TokenType.EOF, pos, pos);
+                return;
+            }
+            int s = pos;
+            char c = source.charAt(s);
+            switch (classOf(source, s, c)) {
+                case DIGIT:
+                    lexNumber(s);
+                    return;
+                case IDENT:
+                    lexIdent(s);
+                    return;
+                case STR:
+                    lexStr(s);
+                    return;
+                case CHAR:
+                    lexChar(s);
+                    return;
+                case OP:
+                    break;
+                default:
+                    throw error(ErrorCode.InvalidInput, s);
+            }
+            char next = source.charAt(s + 1);
+            if (PAIR_NEXT[c] == next) {
+                if (PAIR[c] == null) {
+                    // 注释，跳到换行之后继续
+                    pos = source.indexOfNewline(s + 2) + 1;
+                    continue;
+                }
+                pos = s + 2;
+                set(PAIR[c], s, s + 2);
+                return;
+            }
+            if (SINGLE[c] == null) {
+                throw error(ErrorCode.InvalidInput, s + 1);
+            }
+            pos = s + 1;
+            if (PAIR_NEXT[c] != 0) {
+                set(SINGLE[c], s + 1, s + 2);
+            } else {
+                set(SINGLE[c], s, s + 1);
+            }
+            return;
+        }
+    }
+
+    private boolean more(int offset) {
+        return offset < limit && source.has(offset);
+    }
+
+    private void set(TokenType type, int start, int end) {
+        this.type = type;
+        this.start = start;
+        this.end = end;
+    }
+
+    private void lexNumber(int start) throws TokenizeError {
+        number.scan(start);
+        pos = number.end;
+        payload = number.value;
+        set(number.type, start, number.end + 1);
+    }
+
+    private void lexIdent(int start) throws TokenizeError {
+        int end = start;
+        while (true) {
+            char c = source.charAt(end);
+            if (c < 128) {
+                byte cls = CLASS[c];
+                if (cls != IDENT && cls != DIGIT) {
+                    break;
+                }
+                end++;
+            } else {
+                int n = identLength(source, end, false);
+                if (n == 0) {
+                    break;
+                }
+                end += n;
+            }
+        }
+        pos = end;
+        if (!source.retained(start)) {
+            throw error(ErrorCode.TokenTooLong, start);
+        }
+        int keyword = Keywords.lookup(source, start, end - start);
+        if (keyword >= 0) {
+            payload = keyword;
+            literal = Keywords.WORDS[keyword];
+            set(Keywords.TYPES[keyword], start, end + 1);
+        } else {
+            payload = names.internId(source, start, end - start);
+            set(TokenType.IDENT, start, end + 1);
+        }
+    }
+
+    private void lexStr(int start) throws TokenizeError {
+        StringBuffer str = new StringBuffer();
+        int i = start + 1;
+        char c;
+        while ((c = source.charAt(i)) != '"') {
+            if (!source.has(i + 1)) {
+                throw error(ErrorCode.InvalidInput, i);
+            }
+            if (c == '\\') {
+                str.append(escape(i + 1));
+                i += 2;
+            } else {
+                str.append(c);
+                i++;
+            }
+        }
+        pos = i + 1;
+        literal = decodeUtf8(str);
+        set(TokenType.Str, start, i + 1);
+    }
+
+    private void lexChar(int start) throws TokenizeError {
+        StringBuffer str = new StringBuffer();
+        int i = start + 1;
+        char c;
+        while ((c = source.charAt(i)) != '\'') {
+            if (!source.has(i + 1)) {
+                throw error(ErrorCode.InvalidInput, i);
+            }
+            if (c == '\\') {
+                str.append(escape(i + 1));
+                i += 2;
+            } else {
+                str.append(c);
+                i++;
+            }
+        }
+        pos = i + 1;
+        String s = decodeUtf8(str);
+        if (s.length() != 1) {
+            throw error(ErrorCode.InvalidInput, i);
+        }
+        payload = s.charAt(0);
+        set(TokenType.Char, start, i + 1);
+    }
+
+    private char escape(int at) throws TokenizeError {
+        switch (source.charAt(at)) {
+            case 'r':
+                return '\r';
+            case 'n':
+                return '\n';
+            case 't':
+                return '\t';
+            case '\\':
+                return '\\';
+            case '\'':
+                return '\'';
+            case '"':
+                return '"';
+            default:
+                throw error(ErrorCode.InvalidInput, at);
+        }
+    }
+}
@@ -8,10 +8,11 @@ import java.util.Objects;
 public class Token {
     private TokenType tokenType;
     private Object value;
-    private Pos startPos;
-    private Pos endPos;
+    // 位置只记录源码偏移，报错时才通过 LineIndex 还原成行列号
+    private long startPos;
+    private long endPos;
 
-    public Token(TokenType tokenType, Object value, Pos startPos, Pos endPos) {
+    public Token(TokenType tokenType, Object value, long startPos, long endPos) {
         this.tokenType = tokenType;
         this.value = value;
         this.startPos = startPos;
@@ -33,7 +34,7 @@ public class Token {
             return false;
         Token token = (Token) o;
         return tokenType == token.tokenType && Objects.equals(value, token.value)
-                && Objects.equals(startPos, token.startPos) && Objects.equals(endPos, token.endPos);
+                && startPos == token.startPos && endPos == token.endPos;
     }
 
     @Override
@@ -42,7 +43,8 @@ public class Token {
     }
 
     public String getValueString() {
-        if (value instanceof Integer || value instanceof String || value instanceof Character) {
+        if (value instanceof Integer || value instanceof Long || value instanceof Double
+                || value instanceof String || value instanceof Character) {
             return value.toString();
         }
         throw new Error("No suitable cast for token value.");
@@ -64,27 +66,26 @@ public class Token {
         this.value = value;
     }
 
-    public Pos getStartPos() {
+    public long getStartPos() {
         return startPos;
     }
 
-    public void setStartPos(Pos startPos) {
+    public void setStartPos(long startPos) {
         this.startPos = startPos;
     }
 
-    public Pos getEndPos() {
+    public long getEndPos() {
         return endPos;
     }
 
-    public void setEndPos(Pos endPos) {
+    public void setEndPos(long endPos) {
         this.endPos = endPos;
     }
 
     @Override
     public String toString() {
         var sb = new StringBuilder();
-        sb.append("Line: ").append(this.startPos.row).append(' ');
-        sb.append("Column: ").append(this.startPos.col).append(' ');
+        sb.append("Offset: ").append(this.startPos).append(' ');
         sb.append("Type: ").append(this.tokenType).append(' ');
         sb.append("Value: ").append(this.value);
         return sb.toString();
@@ -94,4 +95,12 @@ public class Token {
         return new StringBuilder().append("Token(").append(this.tokenType).append(", value: ").append(value)
                 .append("at: ").append(this.startPos).toString();
     }
+
+    /**
+     * @param at 已经还原好的起始位置
+     */
+    public String toStringAlt(Pos at) {
+        return new StringBuilder().append("Token(").append(this.tokenType).append(", value: ").append(value)
+                .append("at: ").append(at).toString();
+    }
 }
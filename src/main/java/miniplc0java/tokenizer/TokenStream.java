@@ -0,0 +1,431 @@
+package miniplc0java.tokenizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import miniplc0java.error.TokenizeError;
+import miniplc0java.util.LineIndex;
+
+/**
+ * 按列存储的 Token 缓冲区
+ * 类型、起止位置和字面量分别放在并行的基本类型数组里，按下标访问，每个 Token 只占十几个字节；
+ * 需要 Token 对象的地方（主要是报错）再用 token(i) 临时构造
+ * 字面量的含义由类型决定：
+ * 标识符是 NamePool 里的编号，关键字和 Ty 是 Keywords.WORDS 的下标，Uint 和 Char 是数值，
+ * Double 是 Double.doubleToRawLongBits，Str 是字符串的编号（见 stringBase），运算符不用
+ */
+public class TokenStream {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final Tokenizer tokenizer;
+    private final NamePool names;
+    // 增量编辑后换成新的源码
+    private SourceBuffer source;
+
+    private byte[] types = new byte[1024];
+    private int[] starts = new int[1024];
+    private int[] ends = new int[1024];
+    private long[] payloads = new long[1024];
+    private final ArrayList<String> strings = new ArrayList<>();
+
+    // 数组第 0 项对应的 Token 下标，release 之后会变大
+    private int base = 0;
+    // strings 第 0 项的编号，Str 的字面量是不随 release 变化的编号，减去它才是 strings 的下标
+    private int stringBase = 0;
+    // 已经存放的 Token 数
+    private int count = 0;
+    private boolean finished = false;
+    // 预先分析好的 Token 之后的词法错误，读到那里时才抛出，和按需读取时的报错顺序一致
+    private TokenizeError pending;
+
+    /**
+     * 从 tokenizer 按需读取 Token
+     */
+    public TokenStream(Tokenizer tokenizer) {
+        this.tokenizer = tokenizer;
+        this.names = tokenizer.getNames();
+        this.source = tokenizer.source();
+    }
+
+    /**
+     * 一次性分析整个源码，增量编辑用
+     */
+    public static TokenStream lexAll(SourceBuffer source) {
+        TokenStream stream = new TokenStream(new TableTokenizer(new StringIter(source)));
+        stream.fill();
+        return stream;
+    }
+
+    /**
+     * 空的缓冲区，由 append 一次性填满，ParallelLexer 使用
+     */
+    TokenStream(SourceBuffer source) {
+        this.tokenizer = null;
+        this.names = new NamePool();
+        this.source = source;
+        this.finished = true;
+    }
+
+    public TokenType type(int i) throws TokenizeError {
+        int s = slot(i);
+        return TYPES[types[s]];
+    }
+
+    public long start(int i) throws TokenizeError {
+        int s = slot(i);
+        return starts[s];
+    }
+
+    public long end(int i) throws TokenizeError {
+        int s = slot(i);
+        return ends[s];
+    }
+
+    /**
+     * Uint、Char 的数值
+     */
+    public long longValue(int i) throws TokenizeError {
+        int s = slot(i);
+        return payloads[s];
+    }
+
+    public double doubleValue(int i) throws TokenizeError {
+        int s = slot(i);
+        return Double.longBitsToDouble(payloads[s]);
+    }
+
+    /**
+     * 标识符、关键字、Ty 和字符串字面量的文本
+     */
+    public String text(int i) throws TokenizeError {
+        int s = slot(i);
+        switch (TYPES[types[s]]) {
+            case IDENT:
+                return names.name((int) payloads[s]);
+            case Str:
+                return string(s);
+            default:
+                return Keywords.WORDS[(int) payloads[s]];
+        }
+    }
+
+    /**
+     * 已经读取的 Token 数，不包括读到 EOF 之后重复的 EOF
+     */
+    public int size() {
+        return base + count;
+    }
+
+    public NamePool getNames() {
+        return names;
+    }
+
+    public LineIndex lines() {
+        return source.lines();
+    }
+
+    /**
+     * 构造第 i 个 Token 对象，和 Tokenizer.nextToken() 返回的相同
+     */
+    public Token token(int i) throws TokenizeError {
+        int s = slot(i);
+        TokenType type = TYPES[types[s]];
+        Object value;
+        switch (type) {
+            case IDENT:
+            case Str:
+            case Ty:
+            case FN_KW:
+            case LET_KW:
+            case CONST_KW:
+            case AS_KW:
+            case WHILE_KW:
+            case IF_KW:
+            case ELSE_KW:
+            case RETURN_KW:
+                value = text(i);
+                break;
+            case Uint:
+                value = payloads[s];
+                break;
+            case Double:
+                value = Double.longBitsToDouble(payloads[s]);
+                break;
+            case Char:
+                value = (char) payloads[s];
+                break;
+            default:
+                value = operatorValue(type);
+                break;
+        }
+        return new Token(type, value, starts[s], ends[s]);
+    }
+
+    /**
+     * 丢弃下标小于 before 的 Token，之后不能再访问它们
+     * 分析器在每个顶层声明结束后调用，这样流式读取时 Token 缓冲区、字符串字面量和行首表只随最大的一个声明增长，不随文件增长
+     */
+    public void release(int before) {
+        int drop = before - base;
+        if (drop <= 0 || drop < count / 2) {
+            return;
+        }
+        count -= drop;
+        System.arraycopy(types, drop, types, 0, count);
+        System.arraycopy(starts, drop, starts, 0, count);
+        System.arraycopy(ends, drop, ends, 0, count);
+        System.arraycopy(payloads, drop, payloads, 0, count);
+        base = before;
+        // 字符串按出现的顺序存放，留下的 Token 用到的都不早于其中第一个字符串字面量
+        int keep = stringBase + strings.size();
+        for (int k = 0; k < count; k++) {
+            if (types[k] == TokenType.Str.ordinal()) {
+                keep = (int) payloads[k];
+                break;
+            }
+        }
+        strings.subList(0, keep - stringBase).clear();
+        stringBase = keep;
+        // 之后报错的位置都不会早于留下的第一个 Token
+        if (count > 0) {
+            source.release(starts[0]);
+        }
+    }
+
+    /**
+     * 增量编辑：源码的 [offset, offset + removed) 换成了 inserted 个字节，source 是编辑后的源码
+     * 从第 from 个 Token 开始重新分析，它必须在 offset 之前，并且前一个 Token 的结束不依赖后面的字符；
+     * 分析到编辑之后、和原来的某个 Token 完全对得上（位置差 inserted - removed）时停下，
+     * 之后的 Token 只平移位置
+     * 只能用于 lexAll 得到的、没有 release 过的缓冲区
+     *
+     * @return 原来的 [from, 返回值) 被替换成了新分析的 Token，之后的下标都平移了 size() 的变化量
+     */
+    public int relex(SourceBuffer source, int from, int offset, int removed, int inserted) {
+        if (base != 0 || !finished) {
+            throw new IllegalStateException("relex needs a fully lexed stream");
+        }
+        int delta = inserted - removed;
+        int editEnd = offset + inserted;
+        int restart = from == 0 ? 0 : starts[from];
+        Tokenizer lexer = new TableTokenizer(new StringIter(source), restart, Integer.MAX_VALUE);
+        lexer.names = names;
+        TokenStream fresh = new TokenStream(lexer);
+        // 原来的 Token 里第一个可能和新 Token 对上的
+        int old = from;
+        // 原来有词法错误时，错误的位置没法平移，一直分析到底
+        boolean sync = pending == null;
+        TokenizeError error = null;
+        try {
+            while (true) {
+                lexer.nextTokenInto(fresh);
+                int k = fresh.count - 1;
+                int s = fresh.starts[k];
+                if (sync && s >= editEnd) {
+                    while (old < count && starts[old] + delta < s) {
+                        old++;
+                    }
+                    if (old < count && starts[old] + delta == s && same(old, fresh, k)) {
+                        fresh.count--;
+                        break;
+                    }
+                }
+                if (fresh.types[k] == TokenType.EOF.ordinal()) {
+                    old = count;
+                    break;
+                }
+            }
+        } catch (TokenizeError e) {
+            error = e;
+            old = count;
+        }
+
+        // 把原来的 [from, old) 换成新的 Token，后面的整体挪动
+        int tail = count - old;
+        int size = from + fresh.count + tail;
+        if (size > types.length) {
+            int capacity = Math.max(size, types.length * 2);
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            payloads = Arrays.copyOf(payloads, capacity);
+        }
+        int to = from + fresh.count;
+        System.arraycopy(types, old, types, to, tail);
+        System.arraycopy(starts, old, starts, to, tail);
+        System.arraycopy(ends, old, ends, to, tail);
+        System.arraycopy(payloads, old, payloads, to, tail);
+        for (int k = to; k < size; k++) {
+            starts[k] += delta;
+            ends[k] += delta;
+        }
+        System.arraycopy(fresh.types, 0, types, from, fresh.count);
+        System.arraycopy(fresh.starts, 0, starts, from, fresh.count);
+        System.arraycopy(fresh.ends, 0, ends, from, fresh.count);
+        for (int k = 0; k < fresh.count; k++) {
+            long payload = fresh.payloads[k];
+            if (fresh.types[k] == TokenType.Str.ordinal()) {
+                strings.add(fresh.string(k));
+                payload = stringBase + strings.size() - 1;
+            }
+            payloads[from + k] = payload;
+        }
+        count = size;
+        if (tail == 0) {
+            pending = error;
+        }
+        this.source = source;
+        return old;
+    }
+
+    // 第 i 个 Token 平移之后是否和 other 的第 k 个完全相同
+    private boolean same(int i, TokenStream other, int k) {
+        int delta = other.starts[k] - starts[i];
+        if (types[i] != other.types[k] || ends[i] + delta != other.ends[k]) {
+            return false;
+        }
+        if (types[i] == TokenType.Str.ordinal()) {
+            return string(i).equals(other.string(k));
+        }
+        return payloads[i] == other.payloads[k];
+    }
+
+    /**
+     * 由 Tokenizer 调用，追加一个 Token
+     */
+    void add(TokenType type, int start, int end, long payload) {
+        if (count == types.length) {
+            int capacity = count * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            payloads = Arrays.copyOf(payloads, capacity);
+        }
+        types[count] = (byte) type.ordinal();
+        starts[count] = start;
+        ends[count] = end;
+        payloads[count] = payload;
+        count++;
+        if (type == TokenType.EOF) {
+            finished = true;
+        }
+    }
+
+    void addString(TokenType type, int start, int end, String value) {
+        strings.add(value);
+        add(type, start, end, stringBase + strings.size() - 1);
+    }
+
+    // 数组第 s 项的字符串字面量
+    private String string(int s) {
+        return strings.get((int) (payloads[s] - stringBase));
+    }
+
+    /**
+     * 一直读到 EOF 或者第一个词法错误
+     */
+    void fill() {
+        try {
+            while (!finished) {
+                tokenizer.nextTokenInto(this);
+            }
+        } catch (TokenizeError e) {
+            finished = true;
+            pending = e;
+        }
+    }
+
+    /**
+     * 把另一段源码的 Token 接到后面，标识符编号换成这里的编号
+     * 除了最后一段，其余各段的 EOF 不接上来
+     *
+     * @return 这一段是否没有词法错误
+     */
+    boolean append(TokenStream chunk, boolean last) {
+        for (int k = 0; k < chunk.count; k++) {
+            TokenType type = TYPES[chunk.types[k]];
+            long payload = chunk.payloads[k];
+            if (type == TokenType.EOF && !last) {
+                continue;
+            }
+            if (type == TokenType.IDENT) {
+                add(type, chunk.starts[k], chunk.ends[k], names.internId(chunk.names.name((int) payload)));
+            } else if (type == TokenType.Str) {
+                addString(type, chunk.starts[k], chunk.ends[k], chunk.string(k));
+            } else {
+                add(type, chunk.starts[k], chunk.ends[k], payload);
+            }
+        }
+        pending = chunk.pending;
+        return pending == null;
+    }
+
+    // 按需读取时可能扩容数组，所以调用方要先算出 slot 再访问数组
+    // 词法错误也记下来，之后再读到这里时抛出同一个错误
+    private int slot(int i) throws TokenizeError {
+        try {
+            while (i >= base + count && !finished) {
+                tokenizer.nextTokenInto(this);
+            }
+        } catch (TokenizeError e) {
+            finished = true;
+            pending = e;
+        }
+        if (i < base) {
+            throw new Error("token already released: " + i);
+        }
+        if (i >= base + count) {
+            if (pending != null) {
+                throw pending;
+            }
+            // EOF 之后一直是 EOF
+            return count - 1;
+        }
+        return i - base;
+    }
+
+    static Object operatorValue(TokenType type) {
+        switch (type) {
+            case PLUS:
+                return '+';
+            case MINUS:
+                return '-';
+            case MUL:
+                return '*';
+            case DIV:
+                return '/';
+            case ASSIGN:
+                return '=';
+            case LT:
+                return '<';
+            case GT:
+                return '>';
+            case L_PAREN:
+                return '(';
+            case R_PAREN:
+                return ')';
+            case L_BRACE:
+                return '{';
+            case R_BRACE:
+                return '}';
+            case COMMA:
+                return ',';
+            case COLON:
+                return ':';
+            case SEMICOLON:
+                return ';';
+            case ARROW:
+                return "->";
+            case EQ:
+                return "==";
+            case NEQ:
+                return "!=";
+            case LE:
+                return "<=";
+            case GE:
+                return ">=";
+            default:
+                return "";
+        }
+    }
+}
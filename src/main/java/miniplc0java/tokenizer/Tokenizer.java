@@ -2,14 +2,41 @@ package miniplc0java.tokenizer;
 
 import miniplc0java.error.TokenizeError;
 import miniplc0java.error.ErrorCode;
-import miniplc0java.util.Pos;
+import miniplc0java.util.LineIndex;
+
+import java.nio.charset.StandardCharsets;
 
 public class Tokenizer {
+    /**
+     * 词法分析器的实现：LEGACY 是下面逐字符判断的版本，TABLE 是表驱动的 TableTokenizer
+     */
+    public enum Engine {
+        LEGACY, TABLE
+    }
 
     private StringIter it;
+    // 本次编译的标识符池
+    NamePool names = new NamePool();
+    // 数字字面量的解析器，反复使用同一个
+    final NumberLiteral number;
+
+    // scan() 的结果：类型、起止位置，以及按 TokenStream 约定编码的字面量，字符串字面量放在 literal 里
+    private TokenType type;
+    private long start;
+    private long end;
+    private long payload;
+    private String literal;
 
     public Tokenizer(StringIter it) {
         this.it = it;
+        this.number = new NumberLiteral(this, it.source);
+    }
+
+    public static Tokenizer create(StringIter it, Engine engine) {
+        if (engine == Engine.TABLE) {
+            return new TableTokenizer(it);
+        }
+        return new Tokenizer(it);
     }
 
     // 这里本来是想实现 Iterator<Token> 的，但是 Iterator 不允许抛异常，于是就这样了
@@ -20,37 +47,84 @@ public class Tokenizer {
      * @throws TokenizeError 如果解析有异常则抛出
      */
     public Token nextToken() throws TokenizeError {
-        it.readAll();
+        scan();
+        return new Token(type, value(type, payload, literal, names), start, end);
+    }
 
-        // 跳过之前的所有空白字符
-        skipSpaceCharacters();
+    /**
+     * 读取下一个 Token 并追加到 out 中，TokenStream 通过它按需填充，不构造 Token 对象
+     */
+    void nextTokenInto(TokenStream out) throws TokenizeError {
+        scan();
+        if (type == TokenType.Str) {
+            out.addString(type, (int) start, (int) end, literal);
+        } else {
+            out.add(type, (int) start, (int) end, payload);
+        }
+    }
+
+    /**
+     * 按 TokenStream 约定编码的字面量还原成 Token 的值
+     */
+    static Object value(TokenType type, long payload, String literal, NamePool names) {
+        switch (type) {
+            case IDENT:
+                return names.name((int) payload);
+            case Str:
+                return literal;
+            case Uint:
+                return payload;
+            case Double:
+                return Double.longBitsToDouble(payload);
+            case Char:
+                return (char) payload;
+            case EOF:
+                return "";
+            default:
+                return literal != null ? literal : TokenStream.operatorValue(type);
+        }
+    }
+
+    private void scan() throws TokenizeError {
+        payload = 0;
+        literal = null;
+        // 跳过之前的所有空白字符和注释，注释可能连续很多行，所以用循环而不是递归
+        do {
+            skipSpaceCharacters();
+        } while (it.skipLineComment());
 
         if (it.isEOF()) {//是否结束
-            return new Token(TokenType.EOF, "", it.currentPos(), it.currentPos());
+            set(TokenType.EOF, it.currentPos(), it.currentPos());
+            return;
         }
 
         char peek = it.peekChar();
         if (Character.isDigit(peek)) {//下一个是否为数字
-            return lexUIntOrDouble();
-        } else if (Character.isAlphabetic(peek) || it.peekChar()=='_') {//是否为字母
-            return lexIdentOrKeyword();
+            lexUIntOrDouble();
+        } else if (identLength(it.source, (int) it.previousPos(), true) > 0) {//是否为字母
+            lexIdentOrKeyword();
         } else if (it.peekChar() == '"'){
-            return lexStr();
+            lexStr();
         } else if (it.peekChar() == '\''){
-            return lexChar();
+            lexChar();
         } else {
-            return lexOperatorOrUnknown();
+            lexOperatorOrUnknown();
         }
+    }
 
+    private void set(TokenType type, long start, long end) {
+        this.type = type;
+        this.start = start;
+        this.end = end;
     }
 
-    private Token lexStr() throws TokenizeError {
-        Pos flag=it.previousPos();
+    private void lexStr() throws TokenizeError {
+        long flag=it.previousPos();
         StringBuffer str=new StringBuffer("");
         it.nextChar();
         while (it.peekChar()!='"') {
             if (it.isEOF()) {
-                throw new TokenizeError(ErrorCode.InvalidInput, it.previousPos());
+                throw error(ErrorCode.InvalidInput, it.previousPos());
             }
             if (it.peekChar() == '\\') {//转义字符
                 char c;
@@ -69,7 +143,7 @@ public class Tokenizer {
                     c='\"';
                 }
                 else
-                    throw new TokenizeError(ErrorCode.InvalidInput, it.previousPos());
+                    throw error(ErrorCode.InvalidInput, it.previousPos());
                 str.append(c);
                 it.nextChar();
             } else {
@@ -77,12 +151,12 @@ public class Tokenizer {
             }
         }
         it.nextChar();
-        String s = new String(str);
-        return new Token(TokenType.Str,s,flag,it.currentPos());
+        literal = decodeUtf8(str);
+        set(TokenType.Str, flag, it.currentPos());
     }
 
-    private Token lexChar() throws TokenizeError {
-        Pos flag=it.previousPos();
+    private void lexChar() throws TokenizeError {
+        long flag=it.previousPos();
         StringBuffer str=new StringBuffer("");
         it.nextChar();
         while(it.peekChar()!='\''){
@@ -103,7 +177,7 @@ public class Tokenizer {
                     c='\"';
                 }
                 else
-                    throw new TokenizeError(ErrorCode.InvalidInput, it.previousPos());
+                    throw error(ErrorCode.InvalidInput, it.previousPos());
                 str.append(c);
                 it.nextChar();
             }
@@ -112,194 +186,215 @@ public class Tokenizer {
             }
         }
         it.nextChar();
-        String s = new String(str);
+        String s = decodeUtf8(str);
         char[] temp = s.toCharArray();
         if (temp.length != 1) {
-            throw new TokenizeError(ErrorCode.InvalidInput, it.previousPos());
+            throw error(ErrorCode.InvalidInput, it.previousPos());
         }
-        return new Token(TokenType.Char,temp[0],flag,it.currentPos());
+        payload = temp[0];
+        set(TokenType.Char, flag, it.currentPos());
     }
 
-    private Token lexUIntOrDouble() throws TokenizeError {//判断整数
-        // 请填空：
-        // 直到查看下一个字符不是数字为止:
-        int temp = 0;//判断是不是浮点数
-        Pos flag=it.previousPos();
-        StringBuffer number=new StringBuffer("");
-        while(Character.isDigit(it.peekChar()) || it.peekChar()=='.' || it.peekChar()=='E' || it.peekChar()=='e'){
-            if (it.peekChar() == '.')
-                temp = 1;
-            number.append(it.nextChar());
-        }
-        // -- 前进一个字符，并存储这个字符
-        //
-        // 解析存储的字符串为无符号整数
-        String uint1=new String(number);
-        if (temp == 0) {
-            int a=Integer.parseInt(uint1);
-            // 解析成功则返回无符号整数类型的token，否则返回编译错误
-            return new Token(TokenType.Uint,a,flag,it.currentPos());
-        } else {
-            double a=Double.parseDouble(uint1);
-            return new Token(TokenType.Double,a,flag,it.currentPos());
-        }
-
-        //
-        // Token 的 Value 应填写数字的值
-        //throw new Error("Not implemented");
+    private void lexUIntOrDouble() throws TokenizeError {//判断整数
+        long flag=it.previousPos();
+        number.scan((int) flag);
+        // 和逐个字符读取时一样，停在偷看了字面量后面那个字符的状态
+        it.peekAt(number.end);
+        payload = number.value;
+        set(number.type, flag, it.currentPos());
     }
 
-    private Token lexIdentOrKeyword() throws TokenizeError {//判断为标识符或关键字
-        // 请填空：
-        // 直到查看下一个字符不是数字或字母为止:
-        Pos flag=it.previousPos();
-        StringBuffer x=new StringBuffer("");
-        // -- 前进一个字符，并存储这个字符
-        while(Character.isAlphabetic(it.peekChar())||Character.isDigit(it.peekChar())||it.peekChar()=='_'){
-            x.append(it.nextChar());
-        }
-        //
-        // 尝试将存储的字符串解释为关键字
-        // -- 如果是关键字，则返回关键字类型的 token
-        // -- 否则，返回标识符
-        String a=new String(x);
-        if (a.equals("fn")) {
-            return new Token(TokenType.FN_KW,"fn",flag,it.currentPos());
-        }
-        else if (a.equals("let")) {
-            return new Token(TokenType.LET_KW,"let",flag,it.currentPos());
-        }
-        else if (a.equals("const")) {
-            return new Token(TokenType.CONST_KW,"const",flag,it.currentPos());
-        }
-        else if (a.equals("as")) {
-            return new Token(TokenType.AS_KW,"as",flag,it.currentPos());
-        }
-        else if (a.equals("while")) {
-            return new Token(TokenType.WHILE_KW,"while",flag,it.currentPos());
-        }
-        else if (a.equals("if")) {
-            return new Token(TokenType.IF_KW,"if",flag,it.currentPos());
-        }
-        else if (a.equals("else")) {
-            return new Token(TokenType.ELSE_KW,"else",flag,it.currentPos());
-        }
-        else if (a.equals("return")) {
-            return new Token(TokenType.RETURN_KW,"return",flag,it.currentPos());
-        }
-        else if (a.equals("int") || a.equals("void")||a.equals("double")) {
-            return new Token(TokenType.Ty, a, flag, it.currentPos());
-        }
-        else {
-            return new Token(TokenType.IDENT,a,flag,it.currentPos());
+    private void lexIdentOrKeyword() throws TokenizeError {//判断为标识符或关键字
+        long flag=it.previousPos();
+        // 直到下一个字符不是数字或字母为止，非 ASCII 的字母按 UTF-8 整个跳过
+        int start = (int) flag;
+        int end = start;
+        int n;
+        while ((n = identLength(it.source, end, false)) > 0) {
+            end += n;
+        }
+        // 和逐个字符读取时一样，停在偷看了标识符后面那个字符的状态
+        it.peekAt(end);
+        // 标识符就是 [flag, 偷看的那个字符) 这一段，直接在缓冲区上判断关键字和入池
+        int length = end - start;
+        if (!it.source.retained(start)) {
+            throw error(ErrorCode.TokenTooLong, start);
+        }
+        int keyword = Keywords.lookup(it.source, start, length);
+        if (keyword >= 0) {
+            payload = keyword;
+            literal = Keywords.WORDS[keyword];
+            set(Keywords.TYPES[keyword], flag, it.currentPos());
+        } else {
+            payload = names.internId(it.source, start, length);
+            set(TokenType.IDENT, flag, it.currentPos());
         }
-        //
-        // Token 的 Value 应填写标识符或关键字的字符串
-        //throw new Error("Not implemented");
     }
 
-    private Token lexOperatorOrUnknown() throws TokenizeError {//返回
-        Pos start = it.previousPos();
+    private void lexOperatorOrUnknown() throws TokenizeError {//返回
+        long start = it.previousPos();
         if (it.peekChar() == '+') {
             it.nextChar();
-            return new Token(TokenType.PLUS, '+', it.previousPos(), it.currentPos());
+            set(TokenType.PLUS, it.previousPos(), it.currentPos());
+            return;
         }
         else if (it.peekChar() == '-') {
             it.nextChar();
             if (it.peekChar() == '>') {
                 it.nextChar();
-                return new Token(TokenType.ARROW, "->", start, it.currentPos());
+                set(TokenType.ARROW, start, it.currentPos());
+                return;
             }
-            return new Token(TokenType.MINUS, '-', it.previousPos(), it.currentPos());
+            set(TokenType.MINUS, it.previousPos(), it.currentPos());
+            return;
         }
         else if (it.peekChar() == '*') {
             it.nextChar();
-            return new Token(TokenType.MUL, '*', it.previousPos(), it.currentPos());
+            set(TokenType.MUL, it.previousPos(), it.currentPos());
+            return;
         }
         else if (it.peekChar() == '/') {
+            // 注释已经在 nextToken 里跳过了；这里照旧偷看一个字符，保持原来的位置
             it.nextChar();
-            if (it.peekChar() == '/') {
-                it.nextChar();
-                while (it.peekChar() != '\n') {
-                    it.nextChar();
-                }
-                it.nextChar();
-                return nextToken();
-            } else {
-                it.nextChar();
-                return new Token(TokenType.DIV, '/', it.previousPos(), it.currentPos());
-            }
+            it.peekChar();
+            set(TokenType.DIV, it.previousPos(), it.currentPos());
+            return;
         }
         else if (it.peekChar() == '=') {
             it.nextChar();
             if (it.peekChar() == '=') {
                 it.nextChar();
-                return new Token(TokenType.EQ, "==", start, it.currentPos());
+                set(TokenType.EQ, start, it.currentPos());
+                return;
+            }
+            else {
+                set(TokenType.ASSIGN, it.previousPos(), it.currentPos());
+                return;
             }
-            else
-                return new Token(TokenType.ASSIGN, '=', it.previousPos(), it.currentPos());
         }
         else if (it.peekChar() == '!') {
             it.nextChar();
             if (it.peekChar() == '=') {
                 it.nextChar();
-                return new Token(TokenType.NEQ, "!=", start, it.currentPos());
+                set(TokenType.NEQ, start, it.currentPos());
+                return;
             }
         }
         else if (it.peekChar() == '<') {
             it.nextChar();
             if (it.peekChar() == '=') {
                 it.nextChar();
-                return new Token(TokenType.LE, "<=", start, it.currentPos());
+                set(TokenType.LE, start, it.currentPos());
+                return;
             }
             else {
-                return new Token(TokenType.LT, '<', it.previousPos(), it.currentPos());
+                set(TokenType.LT, it.previousPos(), it.currentPos());
+                return;
             }
         }
         else if (it.peekChar() == '>') {
             it.nextChar();
             if (it.peekChar() == '=') {
                 it.nextChar();
-                return new Token(TokenType.GE, ">=", start, it.currentPos());
+                set(TokenType.GE, start, it.currentPos());
+                return;
             }
             else {
-                return new Token(TokenType.GT, '>', it.previousPos(), it.currentPos());
+                set(TokenType.GT, it.previousPos(), it.currentPos());
+                return;
             }
         }
         else if (it.peekChar() == '(') {
             it.nextChar();
-            return new Token(TokenType.L_PAREN, '(', it.previousPos(), it.currentPos());
+            set(TokenType.L_PAREN, it.previousPos(), it.currentPos());
+            return;
         }
         else if (it.peekChar() == ')') {
             it.nextChar();
-            return new Token(TokenType.R_PAREN, ')', it.previousPos(), it.currentPos());
+            set(TokenType.R_PAREN, it.previousPos(), it.currentPos());
+            return;
         }
         else if (it.peekChar() == '{') {
             it.nextChar();
-            return new Token(TokenType.L_BRACE, '{', it.previousPos(), it.currentPos());
+            set(TokenType.L_BRACE, it.previousPos(), it.currentPos());
+            return;
         }
         else if (it.peekChar() == '}') {
             it.nextChar();
-            return new Token(TokenType.R_BRACE, '}', it.previousPos(), it.currentPos());
+            set(TokenType.R_BRACE, it.previousPos(), it.currentPos());
+            return;
         }
         else if (it.peekChar() == ',') {
             it.nextChar();
-            return new Token(TokenType.COMMA, ',', it.previousPos(), it.currentPos());
+            set(TokenType.COMMA, it.previousPos(), it.currentPos());
+            return;
         }
         else if (it.peekChar() == ':') {
             it.nextChar();
-            return new Token(TokenType.COLON, ':', it.previousPos(), it.currentPos());
+            set(TokenType.COLON, it.previousPos(), it.currentPos());
+            return;
         }
         else if (it.peekChar() == ';') {
             it.nextChar();
-            return new Token(TokenType.SEMICOLON, ';', it.previousPos(), it.currentPos());
+            set(TokenType.SEMICOLON, it.previousPos(), it.currentPos());
+            return;
         }
-        throw new TokenizeError(ErrorCode.InvalidInput, it.previousPos());
+        throw error(ErrorCode.InvalidInput, it.previousPos());
     }
 
-    private void skipSpaceCharacters() {
-        while (!it.isEOF() && Character.isWhitespace(it.peekChar())) {
-            it.nextChar();
+    public NamePool getNames() {
+        return names;
+    }
+
+    /**
+     * 源码的行首表，报错时用来还原行列号
+     */
+    public LineIndex lines() {
+        return it.lines();
+    }
+
+    SourceBuffer source() {
+        return it.source;
+    }
+
+    TokenizeError error(ErrorCode code, long pos) {
+        TokenizeError error = new TokenizeError(code, pos);
+        error.locate(it.lines());
+        return error;
+    }
+
+    /**
+     * offset 上能作为标识符一部分的字符占几个字节，不能时为 0
+     * 字母和 _ 可以出现在任何位置，数字不能在开头；非 ASCII 字符按 UTF-8 解码之后判断是否是字母或数字
+     */
+    static int identLength(SourceBuffer source, int offset, boolean first) {
+        char c = source.charAt(offset);
+        if (c < 0x80) {
+            boolean letter = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+            return letter || (!first && c >= '0' && c <= '9') ? 1 : 0;
         }
+        int cp = source.codePointAt(offset);
+        if (cp < 0 || !(Character.isAlphabetic(cp) || (!first && Character.isDigit(cp)))) {
+            return 0;
+        }
+        return SourceBuffer.utf8Length(cp);
+    }
+
+    /**
+     * StringIter 按字节读入源码，字面量里的非 ASCII 字符需要按 UTF-8 还原
+     */
+    static String decodeUtf8(StringBuffer raw) {
+        byte[] bytes = new byte[raw.length()];
+        boolean ascii = true;
+        for (int i = 0; i < bytes.length; i++) {
+            char c = raw.charAt(i);
+            ascii &= c < 0x80;
+            bytes[i] = (byte) c;
+        }
+        return ascii ? raw.toString() : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void skipSpaceCharacters() {
+        it.skipSpaces();
     }
 }
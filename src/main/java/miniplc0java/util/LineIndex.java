@@ -0,0 +1,112 @@
+package miniplc0java.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * 行首偏移表
+ * 词法分析只记录字符偏移，报错时再用二分查找把偏移还原成行号和列号
+ */
+public class LineIndex {
+    // 超过这个大小的源码分块并行扫描换行
+    private static final int PARALLEL_THRESHOLD = 4 * 1024 * 1024;
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    // 第 dropped + i 行的起始偏移，第 0 行总是从 0 开始
+    private int[] starts = new int[64];
+    private int count = 1;
+    // 流式读取时丢掉的行首数，行号从它开始算
+    private int dropped = 0;
+
+    /**
+     * 一遍扫描整块缓冲区建立行首表，源码较大时分块并行扫描
+     */
+    public static LineIndex of(ByteBuffer buffer, int length) {
+        LineIndex index = new LineIndex();
+        if (length < PARALLEL_THRESHOLD) {
+            for (int i = 0; i < length; i++) {
+                if (buffer.get(i) == '\n') {
+                    index.addLineStart(i + 1);
+                }
+            }
+            return index;
+        }
+        int chunks = (length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        int[][] found = IntStream.range(0, chunks).parallel()
+                .mapToObj(c -> newlinesIn(buffer, c * CHUNK_SIZE, Math.min(length, (c + 1) * CHUNK_SIZE)))
+                .toArray(int[][]::new);
+        for (int[] chunk : found) {
+            for (int start : chunk) {
+                index.addLineStart(start);
+            }
+        }
+        return index;
+    }
+
+    private static int[] newlinesIn(ByteBuffer buffer, int from, int to) {
+        int[] result = new int[16];
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == '\n') {
+                if (n == result.length) {
+                    result = Arrays.copyOf(result, n * 2);
+                }
+                result[n++] = i + 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * 记录一个新的行首，偏移必须递增
+     */
+    public void addLineStart(int offset) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+        }
+        starts[count++] = offset;
+    }
+
+    /**
+     * 丢掉 offset 所在行之前的行首，之后只能还原不小于 offset 的偏移，行号照常累计
+     * 和 TokenStream.release 一样攒够一半才真正移动数组
+     */
+    public void discardBefore(int offset) {
+        int keep = count - 1;
+        while (keep > 0 && starts[keep] > offset) {
+            keep--;
+        }
+        if (keep == 0 || keep < count / 2) {
+            return;
+        }
+        count -= keep;
+        System.arraycopy(starts, keep, starts, 0, count);
+        dropped += keep;
+    }
+
+    /**
+     * 保留的行首数
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * 把源码偏移还原成行列号；丢掉的部分按保留的第一行算
+     */
+    public Pos resolve(long offset) {
+        int lo = 0;
+        int hi = count - 1;
+        // 找最后一个不大于 offset 的行首
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= offset) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return new Pos(dropped + lo, (int) Math.max(0, offset - starts[lo]));
+    }
+}
@@ -1,5 +1,10 @@
 package miniplc0java.util;
 
+/**
+ * 源码位置
+ * 词法分析和语法分析过程中位置都只是一个字符偏移（long），
+ * 只有真正报错的时候才通过 LineIndex 还原成 Pos 对象
+ */
 public class Pos {
     public Pos(int row, int col) {
         this.row = row;
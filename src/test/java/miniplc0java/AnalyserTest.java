@@ -3,6 +3,343 @@ package miniplc0java;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import miniplc0java.analyser.Analyser;
+import miniplc0java.analyser.CompilationContext;
+import miniplc0java.analyser.IncrementalCompiler;
+import miniplc0java.error.CompileError;
+import miniplc0java.error.ErrorCode;
+import miniplc0java.instruction.Function;
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Label;
+import miniplc0java.instruction.Operation;
+import miniplc0java.instruction.Peephole;
+import miniplc0java.tokenizer.SourceBuffer;
+import miniplc0java.tokenizer.StringIter;
+import miniplc0java.tokenizer.Tokenizer;
+
 public class AnalyserTest {
 
+    private String compile(byte[] source) {
+        try {
+            return new Analyser(new Tokenizer(new StringIter(SourceBuffer.of(source)))).analyse().toString();
+        } catch (CompileError e) {
+            return e.getErr() + " " + e.getOffset();
+        }
+    }
+
+    /**
+     * 在 anchor 处编辑，增量编译的结果（包括报错）要和从头编译相同
+     */
+    private void assertEdit(IncrementalCompiler compiler, String anchor, int removed, String inserted) {
+        int offset = new String(compiler.source()).indexOf(anchor);
+        String actual;
+        try {
+            actual = compiler.edit(offset, removed, inserted).toString();
+        } catch (CompileError e) {
+            actual = e.getErr() + " " + e.getOffset();
+        }
+        assertEquals(compile(compiler.source()), actual);
+    }
+
+    @Test
+    public void testIncrementalEditMatchesFullCompile() throws CompileError {
+        var compiler = new IncrementalCompiler(Programs.PROGRAM);
+        assertEquals(compile(compiler.source()), compiler.compile().toString());
+
+        // 只改 show 的函数体，前后的函数都直接重放
+        assertEdit(compiler, "putln", 0, "putint(x + 1);\n    ");
+        assertEquals(2, compiler.replayed());
+
+        // 常量的值变了，环境不同，它后面的函数都重新分析，前面的 add 照样重放；改回来之后再改函数体，又能重放
+        assertEdit(compiler, "const k: int = 3", 16, "const k: int = 4");
+        assertEquals(1, compiler.replayed());
+        assertEdit(compiler, "const k: int = 4", 16, "const k: int = 3");
+        assertEquals(1, compiler.replayed());
+        assertEdit(compiler, "putln", 0, "putln();\n    ");
+        assertEquals(2, compiler.replayed());
+
+        // add 多了一个字符串常量
+        assertEdit(compiler, "return a", 0, "putstr(\"more\");\n    ");
+        // 改函数签名，后面的函数重新分析
+        assertEdit(compiler, "void {\n    putint", 4, "int");
+        // 引入错误再改回来
+        assertEdit(compiler, "const k", 0, "\"unterminated");
+        assertEdit(compiler, "\"unterminated", 13, "");
+        assertEdit(compiler, "putstr(\"world\")", 15, "putstr(\"hello\")");
+        assertEdit(compiler, "putstr(\"hello\");\n    show", 15, "putstr(\"world\")");
+    }
+
+    @Test
+    public void testNonAsciiIdentifiers() {
+        String program = "let 中: int = 4;\nfn 加(a: int) -> int { return a + 中; }\nfn main() -> void { putint(加(中)); }\n";
+        String code = compile(program.getBytes(StandardCharsets.UTF_8));
+        assertTrue(code.contains("加"));
+        assertEquals(compile(program.replace("中", "z").replace("加", "f").getBytes()), code.replace("中", "z").replace("加", "f"));
+    }
+
+    @Test
+    public void testStringLiteralsAreDeduplicated() throws CompileError {
+        var source = "fn main() -> void {\n    putstr(\"main\");\n    putstr(\"x\");\n    putstr(\"x\");\n}\n";
+        var intermediate = new Analyser(new Tokenizer(new StringIter(SourceBuffer.of(source)))).analyse();
+        assertEquals(List.of("main", "x"), intermediate.strings);
+        // 常量池排在函数名和库函数名之后
+        var pushes = new ArrayList<Long>();
+        for (var instruction : intermediate.getFn("main", 0).getInstructionsList()) {
+            if (instruction.getOpt() == Operation.PUSH) {
+                pushes.add(instruction.getX());
+            }
+        }
+        int base = intermediate.globalSymbol.size();
+        assertEquals(List.of((long) base, base + 1L, base + 1L), pushes);
+    }
+
+    @Test
+    public void testGlobalSlotsAreStable() throws CompileError {
+        var source = "fn f() -> int { putint(1); return getint(); }\n"
+                + "let g: int = 3;\n"
+                + "fn main() -> void { putint(g + f()); putln(); }\n"
+                + "let h: int = 4;\n";
+        var intermediate = new Analyser(new Tokenizer(new StringIter(SourceBuffer.of(source)))).analyse();
+        // 库函数只占一个槽位，后声明的全局变量排在后面，不影响已经分配的槽位
+        assertEquals(List.of("f", "putint", "getint", "g", "main", "putln", "h", "_start"), intermediate.globalSymbol);
+        assertEquals(3, intermediate.getSymbolAddress("g"));
+        assertEquals(2, intermediate.getFnAddress("main"));
+    }
+
+    @Test
+    public void testContextsCompileConcurrently() throws Exception {
+        String expected = compile(Programs.PROGRAM.getBytes());
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            var results = new ArrayList<Future<String>>();
+            for (int i = 0; i < 32; i++) {
+                // 同一个上下文 reset 之后可以继续用
+                results.add(pool.submit(() -> {
+                    var context = new CompilationContext();
+                    context.compile(SourceBuffer.of(Programs.PROGRAM));
+                    context.reset();
+                    return context.compile(SourceBuffer.of(Programs.PROGRAM)).toString();
+                }));
+            }
+            for (var result : results) {
+                assertEquals(expected, result.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private String compileParallel(String source) {
+        try {
+            var context = new CompilationContext(Tokenizer.Engine.LEGACY, 1, true);
+            return context.compile(SourceBuffer.of(source)).toString();
+        } catch (CompileError e) {
+            return e.getErr() + " " + e.getOffset();
+        }
+    }
+
+    @Test
+    public void testParallelMatchesSequential() {
+        // 全局变量的初始化里也调用库函数，槽位顺序和函数体里的调用交错
+        String program = Programs.PROGRAM + "let late: int = getchar();\nfn tail() -> void { putchar(late); putstr(\"hello\"); }\n";
+        assertEquals(compile(program.getBytes()), compileParallel(program));
+        // 调用后面的函数、使用后面的全局变量都要和顺序分析一样报错
+        String forward = "fn f() -> int { return g(); }\nfn g() -> int { return 1; }\nfn main() -> void { }\n";
+        assertEquals(compile(forward.getBytes()), compileParallel(forward));
+        String later = "fn f() -> int { return x; }\nlet x: int = 1;\nfn main() -> void { }\n";
+        assertEquals(compile(later.getBytes()), compileParallel(later));
+    }
+
+    @Test
+    public void testAssignTargetMustBeVariable() {
+        String program = "fn main() -> void { let a: int = 1; let b: int; b = a; a * b = 2; }\n";
+        assertTrue(compile(program.getBytes()).startsWith("ExpectedToken"));
+        assertFalse(compile("fn main() -> void { let a: int; a = 2; }\n".getBytes()).startsWith("ExpectedToken"));
+    }
+
+    @Test
+    public void testDoubleOperandsUseFloatInstructions() {
+        String code = compile("fn main() -> void { let x: double; let y: double; y = -x * x; }\n".getBytes());
+        assertTrue(code.contains("NEG_F") && code.contains("MUL_F"));
+        assertFalse(code.contains("MUL_I"));
+        // 类型不同仍然报错
+        assertTrue(compile("fn main() -> void { let x: double; let y: int; y = x; }\n".getBytes()).startsWith("InvalidAssignment"));
+    }
+
+    @Test
+    public void testDeepNestingGrowsStack() throws CompileError {
+        // 1MB 的栈放不下，要加倍几次
+        int depth = 20000;
+        String program = "fn main() -> void " + "{".repeat(depth) + "putint(" + "(".repeat(depth) + "1"
+                + ")".repeat(depth) + ");" + "}".repeat(depth) + "\n";
+        var context = new CompilationContext(Tokenizer.Engine.LEGACY, 1, false, 1 << 20);
+        String code = context.compile(SourceBuffer.of(program)).toString();
+        assertEquals(compile("fn main() -> void { putint(1); }\n".getBytes()), code);
+        // 流式读取的源码不能从头再读，只重新分析栈不够的那个声明，撤销它已经登记的函数、库函数和字符串
+        String deep = "let g: int = 2;\nfn main() -> void { putstr(\"s\"); " + program.substring(program.indexOf('{') + 1);
+        String streamed = new CompilationContext(Tokenizer.Engine.LEGACY, 1, false, 1 << 20)
+                .compile(stream(deep, 64)).toString();
+        assertEquals(new CompilationContext().compile(SourceBuffer.of(deep)).toString(), streamed);
+    }
+
+    @Test
+    public void testJumpsAreResolvedAndThreaded() throws CompileError {
+        // 向前跳到还没放下的标号
+        Function f = new Function("f");
+        Label done = new Label();
+        f.jump(Operation.BR_TRUE, done);
+        f.addInstruction(new Instruction(Operation.POP));
+        f.place(done);
+        f.addInstruction(new Instruction(Operation.RET));
+        f.resolve();
+        assertEquals(3, f.getInstructionsList().size());
+        assertEquals(1, f.getInstructionsList().get(0).getX());
+
+        // 内层 if 的末尾紧跟外层的 BR，跳转直接跳到外层的末尾；循环的回跳越过开头的 BR
+        String program = "fn main() -> void { let a: int = getint();\n"
+                + "while a > 0 { if a > 5 { if a > 9 { a = a - 3; } else { a = a - 2; } } else { a = a - 1; } }\n"
+                + "putint(a); }\n";
+        var intermediate = new CompilationContext().compile(SourceBuffer.of(program));
+        for (Function function : intermediate.fnList) {
+            List<Instruction> code = function.getInstructionsList();
+            for (int i = 0; i < code.size(); i++) {
+                Operation opt = code.get(i).getOpt();
+                assertTrue(opt != Operation.LABEL);
+                if (opt == Operation.BR || opt == Operation.BR_TRUE || opt == Operation.BR_FALSE) {
+                    int target = i + code.get(i).getIntX() + 1;
+                    assertTrue(target <= code.size());
+                    assertFalse(target < code.size() && code.get(target).getOpt() == Operation.BR);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testConstantsAreFolded() throws CompileError {
+        String program = "const k: int = 2 * 3;\n"
+                + "fn main() -> void { const m: int = -k; putint(- -(m + 1) * 4 / 2 < 0); putint(k / 0); }\n";
+        var intermediate = new CompilationContext().compile(SourceBuffer.of(program));
+        // k 和 m 都不再存进变量，_start 里只剩调用 main
+        for (Instruction instruction : intermediate.getFn("_start", 0).getInstructionsList()) {
+            assertTrue(instruction.getOpt() != Operation.STORE_64);
+        }
+        var pushes = new ArrayList<Long>();
+        var operations = new ArrayList<Operation>();
+        for (Instruction instruction : intermediate.getFn("main", 0).getInstructionsList()) {
+            operations.add(instruction.getOpt());
+            if (instruction.getOpt() == Operation.PUSH) {
+                pushes.add(instruction.getX());
+            }
+        }
+        // 除以 0 留到运行时报错
+        assertEquals(List.of(1L, 6L, 0L), pushes);
+        assertEquals(1, operations.stream().filter(o -> o == Operation.DIV_I).count());
+        assertFalse(operations.contains(Operation.MUL_I) || operations.contains(Operation.NEG_I)
+                || operations.contains(Operation.CMP_I) || operations.contains(Operation.STORE_64));
+        // const 仍然不能赋值
+        assertTrue(compile("const k: int = 1;\nfn main() -> void { k = 2; }\n".getBytes()).startsWith("ExpectedToken"));
+    }
+
+    @Test
+    public void testPeepholeRemovesLocalWaste() throws CompileError {
+        String program = "fn main() -> void { let a: int = getint();\n"
+                + "while a >= 0 { if a <= 5 { putint(a); return; } else { a = a - 1; } }\n"
+                + "putln(); }\n";
+        var plain = new CompilationContext(Tokenizer.Engine.LEGACY, 1, false, CompilationContext.DEFAULT_STACK,
+                Peephole.parse("none"));
+        var context = new CompilationContext();
+        var intermediate = context.compile(SourceBuffer.of(program));
+        var peephole = context.getPeephole();
+        long removed = 0;
+        for (Function function : plain.compile(SourceBuffer.of(program)).fnList) {
+            removed += function.getInstructionsList().size();
+        }
+        for (Function function : intermediate.fnList) {
+            removed -= function.getInstructionsList().size();
+        }
+        assertEquals(removed, peephole.removed());
+        assertEquals(0, plain.getPeephole().removed());
+        // while 开头的 BR(0)、putint、putln 和 _start 调用 main 前的 STACKALLOC(0)、return 之后执行不到的 BR 都去掉了，
+        // 两个条件都只剩一条 BR_FALSE 或 BR_TRUE
+        var after = intermediate.getFn("main", 0).getInstructionsList();
+        assertTrue(peephole.removed(Peephole.Rule.JUMP_TO_NEXT) >= 1);
+        assertEquals(3, peephole.removed(Peephole.Rule.STACKALLOC_ZERO));
+        assertTrue(peephole.removed(Peephole.Rule.UNREACHABLE) >= 1);
+        assertEquals(2, peephole.removed(Peephole.Rule.INVERT_BRANCH));
+        assertEquals(2, peephole.removed(Peephole.Rule.NOT_BRANCH));
+        for (int i = 0; i < after.size(); i++) {
+            Instruction instruction = after.get(i);
+            assertFalse(instruction.getOpt() == Operation.NOT);
+            assertFalse(instruction.getOpt() == Operation.BR && instruction.getX() == 0);
+            assertFalse(instruction.getOpt() == Operation.STACKALLOC && instruction.getX() == 0);
+        }
+        // 统计随 reset 清空
+        context.reset();
+        assertEquals(0, peephole.removed());
+    }
+
+    private static SourceBuffer stream(String source, int window) {
+        return SourceBuffer.stream(new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8)), window);
+    }
+
+    @Test
+    public void testStreamingMatchesFlat() throws CompileError {
+        // 很多个声明，每个都比窗口长，字符串和注释跨过窗口的边界
+        var source = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            source.append("let g").append(i).append(": int = ").append(i).append("; // comment ").append(i).append('\n')
+                    .append("fn f").append(i).append("() -> void {\n    putstr(\"line ").append(i)
+                    .append(" of a long string\");\n    putint(g").append(i).append(" * 2);\n}\n");
+        }
+        source.append("fn main() -> void { f0(); }\n");
+        String program = source.toString();
+        var flat = new CompilationContext().compile(SourceBuffer.of(program)).toString();
+        var input = stream(program, 16);
+        assertEquals(flat, new CompilationContext().compile(input).toString());
+        // 行首表只留下最后几个声明的部分
+        assertTrue(input.lines().size() < 20);
+
+        // 错误的行列号和整体读入时相同，包括丢掉行首之后
+        String broken = program + "fn late() -> void {\n    putint(nope);\n}\n";
+        CompileError expected = null;
+        CompileError actual = null;
+        try {
+            new CompilationContext().compile(SourceBuffer.of(broken));
+        } catch (CompileError e) {
+            expected = e;
+        }
+        try {
+            new CompilationContext().compile(stream(broken, 16));
+        } catch (CompileError e) {
+            actual = e;
+        }
+        assertEquals(ErrorCode.NotDeclared, actual.getErr());
+        assertEquals(expected.getPos().row, actual.getPos().row);
+        assertEquals(expected.getPos().col, actual.getPos().col);
+    }
+
+    @Test
+    public void testStreamingRejectsTokensLongerThanWindow() {
+        for (String token : new String[]{"x".repeat(200), "1".repeat(100) + ".5e1"}) {
+            String program = "fn main() -> void { let a: int = " + token + "; }\n";
+            for (var engine : Tokenizer.Engine.values()) {
+                try {
+                    new CompilationContext(engine, 1).compile(stream(program, 16));
+                    fail(token);
+                } catch (CompileError e) {
+                    assertEquals(ErrorCode.TokenTooLong, e.getErr());
+                    assertEquals(0, e.getPos().row);
+                    assertEquals(33, e.getPos().col);
+                }
+            }
+        }
+    }
 }
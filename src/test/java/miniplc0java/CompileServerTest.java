@@ -0,0 +1,98 @@
+package miniplc0java;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+public class CompileServerTest {
+
+    // 每个测试的工作目录，测试结束后连同输出文件一起删掉
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private static final String SOURCE = "fn main() -> void { putint(1); }\n";
+
+    private static String serve(String request) throws IOException {
+        var out = new ByteArrayOutputStream();
+        CompileServer.serve(new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8)), out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testServeCompilesRelativeToClientDirectory() throws IOException {
+        Path dir = temp.newFolder().toPath();
+        Files.writeString(dir.resolve("in.c0"), SOURCE);
+        // 两个请求，第二个的源码不存在
+        String reply = serve(dir + "\tin.c0\t-o\tout.o0\n" + dir + "\tmissing.c0\t-o\tout2.o0\n");
+        assertTrue(reply.startsWith("0 0\n2 "));
+        assertTrue(Files.size(dir.resolve("out.o0")) > 0);
+    }
+
+    @Test
+    public void testServeRejectsStandardStreams() throws IOException {
+        Path dir = temp.newFolder().toPath();
+        Files.writeString(dir.resolve("in.c0"), SOURCE);
+        // - 作为输入会读到协议本身，作为输出会写进回复
+        assertTrue(serve(dir + "\t-\t-o\tout.o0\n").startsWith("2 "));
+        assertTrue(serve(dir + "\tin.c0\t-o\t-\n").startsWith("2 "));
+        assertTrue(serve("relative\tin.c0\t-o\tout.o0\n").startsWith("2 "));
+        assertFalse(Files.exists(dir.resolve("out.o0")));
+    }
+
+    @Test
+    public void testClientTalksToServerOverOwnerOnlySocket() throws Exception {
+        Path dir = temp.newFolder().toPath();
+        Files.writeString(dir.resolve("in.c0"), SOURCE);
+        Path socket = dir.resolve("run").resolve("server.sock");
+        ServerSocketChannel server = CompileServer.bind(socket);
+        Thread listener = new Thread(() -> {
+            try {
+                CompileServer.listen(server);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        listener.start();
+        try {
+            assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(socket.getParent())));
+            assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(socket)));
+            var err = new ByteArrayOutputStream();
+            int status;
+            try (SocketChannel channel = Client.connect(socket)) {
+                assertNotNull(channel);
+                status = Client.request(new String[]{dir.resolve("in.c0").toString(), "-o", dir.resolve("out.o0").toString()},
+                        Channels.newInputStream(channel), Channels.newOutputStream(channel),
+                        new PrintStream(err, true, StandardCharsets.UTF_8));
+            }
+            assertEquals(0, status);
+            assertEquals(0, err.size());
+            assertTrue(Files.size(dir.resolve("out.o0")) > 0);
+        } finally {
+            server.close();
+            listener.join();
+        }
+        // 服务没有启动时连不上，客户端自己编译
+        Files.delete(socket);
+        assertNull(Client.connect(socket));
+    }
+
+    @Test(expected = IOException.class)
+    public void testBindRefusesSharedDirectory() throws IOException {
+        Path dir = temp.newFolder().toPath();
+        Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString("rwxrwxrwx"));
+        CompileServer.bind(dir.resolve("server.sock")).close();
+    }
+}
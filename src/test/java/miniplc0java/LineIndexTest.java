@@ -0,0 +1,99 @@
+package miniplc0java;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import miniplc0java.analyser.CompilationContext;
+import miniplc0java.error.CompileError;
+import miniplc0java.error.ErrorCode;
+import miniplc0java.tokenizer.SourceBuffer;
+import miniplc0java.util.LineIndex;
+import miniplc0java.util.Pos;
+
+public class LineIndexTest {
+
+    /**
+     * 逐字节数出 offset 的行列号
+     */
+    private static void assertResolves(byte[] source, LineIndex lines, int offset) {
+        int row = 0;
+        int start = 0;
+        for (int i = 0; i < offset; i++) {
+            if (source[i] == '\n') {
+                row++;
+                start = i + 1;
+            }
+        }
+        Pos pos = lines.resolve(offset);
+        assertEquals("row of " + offset, row, pos.row);
+        assertEquals("col of " + offset, offset - start, pos.col);
+    }
+
+    private static CompileError compileError(byte[] source) {
+        try {
+            new CompilationContext().compile(SourceBuffer.of(source));
+        } catch (CompileError e) {
+            return e;
+        }
+        throw new AssertionError("no error");
+    }
+
+    @Test
+    public void testResolveEveryOffset() {
+        byte[] source = Programs.PROGRAM.getBytes(StandardCharsets.UTF_8);
+        LineIndex lines = SourceBuffer.of(source).lines();
+        for (int offset = 0; offset < source.length; offset++) {
+            assertResolves(source, lines, offset);
+        }
+        // 最后一行没有换行，补上的 \n 之后是新的一行
+        assertEquals(17, lines.resolve(source.length).row);
+        assertEquals(18, lines.resolve(source.length + 1).row);
+    }
+
+    @Test
+    public void testErrorOnKnownLine() {
+        // show 里的第二个语句少了右括号，报在第 9 行（从 0 开始）的分号上
+        String program = Programs.PROGRAM.replace("putln();", "putln(;");
+        CompileError e = compileError(program.getBytes(StandardCharsets.UTF_8));
+        assertEquals(ErrorCode.ExpectedToken, e.getErr());
+        assertEquals(program.indexOf("putln(;") + "putln(".length(), e.getOffset());
+        assertEquals(9, e.getPos().row);
+        assertEquals("    putln(".length(), e.getPos().col);
+
+        // 词法错误也一样，列号按字节算
+        program = Programs.PROGRAM.replace("const k", "const 中$k");
+        e = compileError(program.getBytes(StandardCharsets.UTF_8));
+        assertEquals(ErrorCode.InvalidInput, e.getErr());
+        assertEquals(6, e.getPos().row);
+        assertEquals("const 中".getBytes(StandardCharsets.UTF_8).length, e.getPos().col);
+    }
+
+    @Test
+    public void testParallelIndexAboveThreshold() {
+        // 超过 4 MiB 时分块并行扫描换行，1 MiB 的块边界前后都要和逐字节数的结果相同
+        var builder = new StringBuilder();
+        for (int i = 0; builder.length() < 5 * 1024 * 1024; i++) {
+            builder.append("let v").append(i).append(": int = ").append(i).append(";").append(" ".repeat(i % 13)).append('\n');
+        }
+        int errorLine = 123456;
+        String line = "let v" + errorLine + ": int = " + errorLine + ";";
+        String program = builder.toString().replace(line, "let v" + errorLine + ": int = ;") + "fn main() -> void { }\n";
+        byte[] source = program.getBytes(StandardCharsets.UTF_8);
+        assertTrue(source.length > 4 * 1024 * 1024);
+
+        LineIndex lines = LineIndex.of(ByteBuffer.wrap(source), source.length);
+        for (int chunk = 1024 * 1024; chunk < source.length; chunk += 1024 * 1024) {
+            for (int offset = chunk - 20; offset <= chunk + 20; offset++) {
+                assertResolves(source, lines, offset);
+            }
+        }
+        assertResolves(source, lines, source.length - 1);
+
+        CompileError e = compileError(source);
+        assertEquals(errorLine, e.getPos().row);
+        assertEquals(("let v" + errorLine + ": int = ").length(), e.getPos().col);
+    }
+}
@@ -0,0 +1,32 @@
+package miniplc0java;
+
+/**
+ * 各个测试共用的源码
+ */
+final class Programs {
+    private Programs() {
+    }
+
+    /**
+     * 全局变量和常量、三个互相调用的函数、库函数、字符串和字符字面量、注释、if/while 和 double 变量，
+     * 最后一行没有换行；各测试按内容定位，改动时注意 AnalyserTest 里增量编辑的锚点和 TokenizerTest 里的下标
+     */
+    static final String PROGRAM = "let g: int = 5;\n"
+            + "fn add(a: int, const b: int) -> int {\n"
+            + "    // comment\n"
+            + "    putstr(\"hello\");\n"
+            + "    return a+b*2/g - -1;\n"
+            + "}\n"
+            + "const k: int = 3;\n"
+            + "fn show(x: int) -> void {\n"
+            + "    putint(x);\n"
+            + "    putln();\n"
+            + "}\n"
+            + "fn main() -> void {\n"
+            + "    putstr(\"world\");\n"
+            + "    show(add(getint(), k));\n"
+            + "    if add(1, 2) >= 3 { putstr(\"a\\tb\"); } else if 1 != 2 { putchar('\\n'); }\n"
+            + "    while g <= 10 { g = g + 1; }\n"
+            + "    let d: double;\n"
+            + "}";
+}
@@ -3,6 +3,200 @@ package miniplc0java;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import miniplc0java.error.CompileError;
+import miniplc0java.error.ErrorCode;
+import miniplc0java.error.TokenizeError;
+import miniplc0java.tokenizer.ParallelLexer;
+import miniplc0java.tokenizer.SourceBuffer;
+import miniplc0java.tokenizer.StringIter;
+import miniplc0java.tokenizer.Token;
+import miniplc0java.tokenizer.TokenStream;
+import miniplc0java.tokenizer.TokenType;
+import miniplc0java.tokenizer.Tokenizer;
+
 public class TokenizerTest {
 
+    private List<Token> tokenize(String source, Tokenizer.Engine engine) throws CompileError {
+        var tokenizer = Tokenizer.create(new StringIter(SourceBuffer.of(source)), engine);
+        var tokens = new ArrayList<Token>();
+        Token token;
+        do {
+            token = tokenizer.nextToken();
+            tokens.add(token);
+        } while (token.getTokenType() != TokenType.EOF);
+        return tokens;
+    }
+
+    @Test
+    public void testTableEngineMatchesLegacy() throws CompileError {
+        assertEquals(tokenize(Programs.PROGRAM, Tokenizer.Engine.LEGACY), tokenize(Programs.PROGRAM, Tokenizer.Engine.TABLE));
+    }
+
+    @Test
+    public void testIdentifiersAreInterned() throws CompileError {
+        for (var engine : Tokenizer.Engine.values()) {
+            var tokens = tokenize("abc let abc abcd", engine);
+            assertEquals(TokenType.IDENT, tokens.get(0).getTokenType());
+            assertEquals(TokenType.LET_KW, tokens.get(1).getTokenType());
+            assertSame(tokens.get(0).getValue(), tokens.get(2).getValue());
+            assertEquals("abcd", tokens.get(3).getValue());
+        }
+    }
+
+    @Test
+    public void testNonAsciiIdentifiersAreDecoded() throws CompileError {
+        // 中 是三个字节，全角空格（U+3000）也是空白
+        var source = "let 中: int = 4;\u3000变量2 _é\n";
+        for (var engine : Tokenizer.Engine.values()) {
+            var tokens = tokenize(source, engine);
+            assertEquals(TokenType.IDENT, tokens.get(1).getTokenType());
+            assertEquals("中", tokens.get(1).getValue());
+            assertEquals(4, tokens.get(1).getStartPos());
+            assertEquals(8, tokens.get(1).getEndPos());
+            assertEquals("变量2", tokens.get(7).getValue());
+            assertEquals("_é", tokens.get(8).getValue());
+            assertEquals(TokenType.EOF, tokens.get(9).getTokenType());
+            assertEquals(tokens, tokenize(source, Tokenizer.Engine.LEGACY));
+            // 不是字母的非 ASCII 字符和不合法的 UTF-8 仍然报错
+            for (var bad : new byte[][]{"let ×: int;".getBytes(StandardCharsets.UTF_8), {'a', (byte) 0xe4, (byte) 0xb8, ' '}}) {
+                try {
+                    var tokenizer = Tokenizer.create(new StringIter(SourceBuffer.of(bad)), engine);
+                    while (tokenizer.nextToken().getTokenType() != TokenType.EOF) {
+                    }
+                    fail();
+                } catch (TokenizeError e) {
+                    assertEquals(ErrorCode.InvalidInput, e.getErr());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSkipSpacesAcrossWordBoundaries() {
+        // 一次比较 8 个字节，空白串在每个长度、每个起点上都要停在同一个地方；\f、\u000B 和全角空格走慢路径
+        String[] spaces = {" ", "\t", "\r", "\n", "\f", "\u000B", "\u3000"};
+        for (int length = 0; length <= 20; length++) {
+            var run = new StringBuilder();
+            for (int i = 0; i < length; i++) {
+                run.append(spaces[(i * 5 + length) % spaces.length]);
+            }
+            for (String tail : new String[]{"x;\n", "中\n", ""}) {
+                for (int start = 1; start <= 8; start++) {
+                    byte[] bytes = ("a".repeat(start) + run + tail).getBytes(StandardCharsets.UTF_8);
+                    int expected = bytes.length - tail.getBytes(StandardCharsets.UTF_8).length;
+                    if (tail.isEmpty() && bytes[bytes.length - 1] != '\n') {
+                        // 补上的 \n 也是空白，停在源码末尾
+                        expected++;
+                    }
+                    assertEquals(expected, SourceBuffer.of(bytes).skipSpaces(start));
+                    assertEquals(expected, SourceBuffer.stream(new ByteArrayInputStream(bytes), 16).skipSpaces(start));
+                    assertEquals(0, SourceBuffer.of(bytes).skipSpaces(0));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testIndexOfNewlineAcrossWordBoundaries() {
+        for (int length = 0; length <= 20; length++) {
+            String line = "x".repeat(length);
+            for (int start = 0; start <= Math.min(length, 9); start++) {
+                // 换行在后面，以及没有换行、用补上的那个
+                for (String source : new String[]{line + "\n// \n", line}) {
+                    byte[] bytes = source.getBytes(StandardCharsets.UTF_8);
+                    assertEquals(length, SourceBuffer.of(bytes).indexOfNewline(start));
+                    assertEquals(length, SourceBuffer.stream(new ByteArrayInputStream(bytes), 16).indexOfNewline(start));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLongCommentRuns() throws CompileError {
+        // 很多行连续的注释（有的很长、有的不以换行结尾）要一次跳过，不能递归
+        var source = new StringBuilder("let\n");
+        for (int i = 0; i < 100000; i++) {
+            source.append(i % 7 == 0 ? "  // " + "-".repeat(i % 50) + "\n" : "//\n");
+        }
+        source.append("x // 最后一行没有换行");
+        for (var engine : Tokenizer.Engine.values()) {
+            var tokens = tokenize(source.toString(), engine);
+            assertEquals(3, tokens.size());
+            assertEquals(TokenType.LET_KW, tokens.get(0).getTokenType());
+            assertEquals("x", tokens.get(1).getValue());
+            assertEquals(source.lastIndexOf("x"), tokens.get(1).getStartPos());
+            assertEquals(TokenType.EOF, tokens.get(2).getTokenType());
+        }
+    }
+
+    @Test
+    public void testTokenStreamMatchesTokens() throws CompileError {
+        // 分析器不接受 double 字面量，只在这里接在程序后面
+        var source = Programs.PROGRAM + "\n1.5";
+        for (var engine : Tokenizer.Engine.values()) {
+            var expected = tokenize(source, engine);
+            var stream = new TokenStream(Tokenizer.create(new StringIter(SourceBuffer.of(source)), engine));
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i), stream.token(i));
+            }
+            assertEquals("int", stream.text(3));
+            assertEquals("add", stream.text(8));
+            assertEquals(1.5, stream.doubleValue(expected.size() - 2), 0);
+        }
+    }
+
+    @Test
+    public void testParallelLexerMatchesSequential() throws CompileError {
+        // 字符串里的换行和注释里的引号都不能作为切分点
+        var source = new StringBuilder();
+        for (int i = 0; source.length() < 1024 * 1024; i++) {
+            source.append("let v").append(i).append(": int = ").append(i).append("; // it's \"\n")
+                    .append("fn f").append(i).append("() -> void { putstr(\"a\n// b\"); putchar('\\''); }\n");
+        }
+        var expected = tokenize(source.toString(), Tokenizer.Engine.LEGACY);
+        // 每种词法分析器都切段分析，第二次编译用的是同一个线程池
+        for (int round = 0; round < 2; round++) {
+            for (var engine : Tokenizer.Engine.values()) {
+                var stream = ParallelLexer.lex(SourceBuffer.of(source.toString()), 4, engine);
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals(expected.get(i), stream.token(i));
+                }
+            }
+        }
+        // 太小的源码顺序分析，也用选定的词法分析器
+        for (var engine : Tokenizer.Engine.values()) {
+            var stream = ParallelLexer.lex(SourceBuffer.of(Programs.PROGRAM), 4, engine);
+            var tokens = tokenize(Programs.PROGRAM, engine);
+            for (int i = 0; i < tokens.size(); i++) {
+                assertEquals(tokens.get(i), stream.token(i));
+            }
+        }
+    }
+
+    @Test
+    public void testNumberLiterals() throws CompileError {
+        for (var engine : Tokenizer.Engine.values()) {
+            var tokens = tokenize("9223372036854775807 18446744073709551615 0.1 2.5e-3 1.7976931348623157e308", engine);
+            assertEquals(Long.MAX_VALUE, tokens.get(0).getValue());
+            assertEquals(-1L, tokens.get(1).getValue());
+            assertEquals(0.1, tokens.get(2).getValue());
+            assertEquals(0.0025, tokens.get(3).getValue());
+            assertEquals(Double.MAX_VALUE, tokens.get(4).getValue());
+            assertEquals("9223372036854775807", tokens.get(0).getValueString());
+            assertEquals("0.1", tokens.get(2).getValueString());
+            for (var source : new String[]{"18446744073709551616", "1.", "1.5e+"}) {
+                try {
+                    tokenize(source, engine);
+                    fail(source);
+                } catch (TokenizeError e) {
+                    assertEquals(source.contains(".") ? ErrorCode.InvalidInput : ErrorCode.IntegerOverflow, e.getErr());
+                }
+            }
+        }
+    }
 }